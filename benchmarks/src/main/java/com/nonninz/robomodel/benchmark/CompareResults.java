@@ -0,0 +1,81 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares two JMH result files written with -rf json.
+ * 
+ * Usage: java -cp benchmarks.jar com.nonninz.robomodel.benchmark.CompareResults old.json new.json
+ */
+public class CompareResults {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: CompareResults <baseline.json> <candidate.json>");
+            System.exit(1);
+        }
+
+        final Map<String, JsonNode> baseline = read(new File(args[0]));
+        final Map<String, JsonNode> candidate = read(new File(args[1]));
+
+        System.out.println(String.format("%-90s %14s %14s %8s", "Benchmark", "Baseline",
+                        "Candidate", "Ratio"));
+        for (final Map.Entry<String, JsonNode> entry : candidate.entrySet()) {
+            final JsonNode after = entry.getValue().get("primaryMetric");
+            final JsonNode before = baseline.containsKey(entry.getKey()) ? baseline.get(
+                            entry.getKey()).get("primaryMetric") : null;
+
+            final double score = after.get("score").asDouble();
+            if (before == null) {
+                System.out.println(String.format("%-90s %14s %14.3f %8s", entry.getKey(), "-",
+                                score, "-"));
+            } else {
+                final double old = before.get("score").asDouble();
+                System.out.println(String.format("%-90s %14.3f %14.3f %8.2f", entry.getKey(),
+                                old, score, score / old));
+            }
+        }
+    }
+
+    private static Map<String, JsonNode> read(File file) throws IOException {
+        final Map<String, JsonNode> results = new LinkedHashMap<String, JsonNode>();
+        for (final JsonNode result : new ObjectMapper().readTree(file)) {
+            final StringBuilder key = new StringBuilder(result.get("benchmark").asText());
+            final JsonNode params = result.get("params");
+            if (params != null) {
+                for (final Iterator<Map.Entry<String, JsonNode>> it = params.fields(); it
+                                .hasNext();) {
+                    final Map.Entry<String, JsonNode> param = it.next();
+                    key.append(' ').append(param.getKey()).append('=')
+                                    .append(param.getValue().asText());
+                }
+            }
+            key.append(" (").append(result.get("primaryMetric").get("scoreUnit").asText())
+                            .append(')');
+            results.put(key.toString(), result);
+        }
+        return results;
+    }
+}
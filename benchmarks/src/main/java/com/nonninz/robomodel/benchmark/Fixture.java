@@ -0,0 +1,80 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.nonninz.robomodel.RoboManager;
+import com.nonninz.robomodel.benchmark.Models.BenchmarkModel;
+
+/**
+ * A fresh database in a temporary directory, with one table filled with rows.
+ */
+class Fixture<T extends BenchmarkModel> {
+    final File directory;
+    final Context context;
+    final RoboManager<T> manager;
+
+    Fixture(Class<T> klass) throws IOException {
+        directory = File.createTempFile("robomodel", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Could not create " + directory);
+        }
+        context = new Context(directory, "benchmark");
+        manager = RoboManager.get(context, klass);
+    }
+
+    /**
+     * Inserts rows models, with keys from 0 to rows - 1, in one transaction.
+     */
+    void populate(int rows) {
+        final SQLiteDatabase db = database();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < rows; i++) {
+                final T model = manager.create();
+                model.fill(i);
+                model.save();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    String tableName() {
+        return manager.create().getClass().getSimpleName();
+    }
+
+    SQLiteDatabase database() {
+        return context.openOrCreateDatabase(manager.getDatabaseName(), Context.MODE_PRIVATE, null);
+    }
+
+    void close() {
+        database().close();
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
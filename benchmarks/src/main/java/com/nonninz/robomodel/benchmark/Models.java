@@ -0,0 +1,259 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.nonninz.robomodel.RoboModel;
+import com.nonninz.robomodel.annotations.EnumCode;
+import com.nonninz.robomodel.annotations.EnumOrdinal;
+
+/**
+ * The models used by the benchmarks, one for every width and field type. Every model has an
+ * integer key to select on.
+ */
+public class Models {
+
+    public enum Status {
+        @EnumCode(0) CREATED,
+        @EnumCode(1) QUEUED,
+        @EnumCode(2) RUNNING,
+        @EnumCode(3) PAUSED,
+        @EnumCode(4) FAILED,
+        @EnumCode(5) DONE
+    }
+
+    /**
+     * Only the fields declared by the concrete class are saved, so every model declares its own
+     * key.
+     */
+    public static abstract class BenchmarkModel extends RoboModel {
+        /**
+         * Sets all the fields to values derived from i
+         */
+        public abstract void fill(int i);
+    }
+
+    public static class NarrowPrimitive extends BenchmarkModel {
+        public int key;
+        public long timestamp;
+        public double score;
+        public String name;
+
+        @Override
+        public void fill(int i) {
+            key = i;
+            timestamp = 1400000000000L + i;
+            score = i / 3.0;
+            name = "name " + i;
+        }
+    }
+
+    public static class WidePrimitive extends BenchmarkModel {
+        public int key;
+        public boolean b1, b2;
+        public int i1, i2, i3;
+        public long l1, l2, l3;
+        public float f1, f2;
+        public double d1, d2, d3;
+        public String s1, s2;
+
+        @Override
+        public void fill(int i) {
+            key = i;
+            b1 = i % 2 == 0;
+            b2 = i % 3 == 0;
+            i1 = i;
+            i2 = i * 2;
+            i3 = -i;
+            l1 = 1400000000000L + i;
+            l2 = i * 1000L;
+            l3 = Long.MAX_VALUE - i;
+            f1 = i / 7f;
+            f2 = i / 11f;
+            d1 = i / 3.0;
+            d2 = i / 13.0;
+            d3 = Math.sqrt(i);
+            s1 = "first " + i;
+            s2 = "second string with a longer text " + i;
+        }
+    }
+
+    public static class NarrowEnum extends BenchmarkModel {
+        public int key;
+        public Status status;
+        public Status previous;
+        public Status requested;
+
+        @Override
+        public void fill(int i) {
+            final Status[] values = Status.values();
+            key = i;
+            status = values[i % values.length];
+            previous = values[(i + 1) % values.length];
+            requested = values[(i + 2) % values.length];
+        }
+    }
+
+    public static class WideEnum extends BenchmarkModel {
+        public int key;
+        public Status e1, e2, e3, e4, e5, e6, e7, e8, e9, e10, e11, e12, e13, e14, e15;
+
+        @Override
+        public void fill(int i) {
+            final Status[] v = Status.values();
+            key = i;
+            e1 = v[i % v.length];
+            e2 = v[(i + 1) % v.length];
+            e3 = v[(i + 2) % v.length];
+            e4 = v[(i + 3) % v.length];
+            e5 = v[(i + 4) % v.length];
+            e6 = v[(i + 5) % v.length];
+            e7 = v[i % v.length];
+            e8 = v[(i + 1) % v.length];
+            e9 = v[(i + 2) % v.length];
+            e10 = v[(i + 3) % v.length];
+            e11 = v[(i + 4) % v.length];
+            e12 = v[(i + 5) % v.length];
+            e13 = v[i % v.length];
+            e14 = v[(i + 1) % v.length];
+            e15 = v[(i + 2) % v.length];
+        }
+    }
+
+    public static class NarrowEnumOrdinal extends BenchmarkModel {
+        public int key;
+        @EnumOrdinal public Status status;
+        @EnumOrdinal public Status previous;
+        @EnumOrdinal public Status requested;
+
+        @Override
+        public void fill(int i) {
+            final Status[] values = Status.values();
+            key = i;
+            status = values[i % values.length];
+            previous = values[(i + 1) % values.length];
+            requested = values[(i + 2) % values.length];
+        }
+    }
+
+    public static class WideEnumOrdinal extends BenchmarkModel {
+        public int key;
+        @EnumOrdinal public Status e1, e2, e3, e4, e5, e6, e7, e8, e9, e10, e11, e12, e13, e14, e15;
+
+        @Override
+        public void fill(int i) {
+            final Status[] v = Status.values();
+            key = i;
+            e1 = v[i % v.length];
+            e2 = v[(i + 1) % v.length];
+            e3 = v[(i + 2) % v.length];
+            e4 = v[(i + 3) % v.length];
+            e5 = v[(i + 4) % v.length];
+            e6 = v[(i + 5) % v.length];
+            e7 = v[i % v.length];
+            e8 = v[(i + 1) % v.length];
+            e9 = v[(i + 2) % v.length];
+            e10 = v[(i + 3) % v.length];
+            e11 = v[(i + 4) % v.length];
+            e12 = v[(i + 5) % v.length];
+            e13 = v[i % v.length];
+            e14 = v[(i + 1) % v.length];
+            e15 = v[(i + 2) % v.length];
+        }
+    }
+
+    public static class NarrowJson extends BenchmarkModel {
+        public int key;
+        public List<Long> ids;
+        public Map<String, String> attributes;
+        public int[] counters;
+
+        @Override
+        public void fill(int i) {
+            key = i;
+            ids = ids(i, 20);
+            attributes = attributes(i, 4);
+            counters = new int[] { i, i + 1, i + 2, i + 3 };
+        }
+    }
+
+    public static class WideJson extends BenchmarkModel {
+        public int key;
+        public List<Long> ids1, ids2, ids3, ids4, ids5;
+        public Map<String, String> a1, a2, a3, a4, a5;
+        public int[] c1, c2, c3, c4, c5;
+
+        @Override
+        public void fill(int i) {
+            key = i;
+            ids1 = ids(i, 20);
+            ids2 = ids(i + 1, 20);
+            ids3 = ids(i + 2, 20);
+            ids4 = ids(i + 3, 20);
+            ids5 = ids(i + 4, 20);
+            a1 = attributes(i, 4);
+            a2 = attributes(i + 1, 4);
+            a3 = attributes(i + 2, 4);
+            a4 = attributes(i + 3, 4);
+            a5 = attributes(i + 4, 4);
+            c1 = new int[] { i, i + 1, i + 2, i + 3 };
+            c2 = new int[] { i, i * 2, i * 3 };
+            c3 = new int[] { -i };
+            c4 = new int[] {};
+            c5 = new int[] { i, i };
+        }
+    }
+
+    static List<Long> ids(int seed, int count) {
+        final List<Long> ids = new ArrayList<Long>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(seed * 1000L + i);
+        }
+        return ids;
+    }
+
+    static Map<String, String> attributes(int seed, int count) {
+        final Map<String, String> attributes = new HashMap<String, String>();
+        for (int i = 0; i < count; i++) {
+            attributes.put("attribute" + i, "value " + seed + "." + i);
+        }
+        return attributes;
+    }
+
+    /**
+     * @param width
+     *            narrow or wide
+     * @param fieldType
+     *            primitive, enum, enumOrdinal or json
+     */
+    public static Class<? extends BenchmarkModel> get(String width, String fieldType) {
+        final boolean wide = "wide".equals(width);
+        if ("primitive".equals(fieldType)) {
+            return wide ? WidePrimitive.class : NarrowPrimitive.class;
+        } else if ("enum".equals(fieldType)) {
+            return wide ? WideEnum.class : NarrowEnum.class;
+        } else if ("enumOrdinal".equals(fieldType)) {
+            return wide ? WideEnumOrdinal.class : NarrowEnumOrdinal.class;
+        } else if ("json".equals(fieldType)) {
+            return wide ? WideJson.class : NarrowJson.class;
+        }
+        throw new IllegalArgumentException("Unknown field type " + fieldType);
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel.benchmark;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nonninz.robomodel.RoboManager;
+import com.nonninz.robomodel.benchmark.Models.BenchmarkModel;
+import com.nonninz.robomodel.exceptions.InstanceNotFoundException;
+
+/**
+ * Benchmarks the public persistence API on a table of {@link #rows} rows of the model selected
+ * by {@link #width} and {@link #fieldType}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    @Param({ "narrow", "wide" })
+    public String width;
+
+    @Param({ "primitive", "enum", "enumOrdinal", "json" })
+    public String fieldType;
+
+    @Param({ "1000", "100000" })
+    public int rows;
+
+    private Fixture<BenchmarkModel> mFixture;
+    private RoboManager<BenchmarkModel> mManager;
+    private BenchmarkModel mModel;
+    private String mJson;
+    private final Random mRandom = new Random(42);
+
+    @SuppressWarnings("unchecked")
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final Class<BenchmarkModel> klass = (Class<BenchmarkModel>) Models.get(width, fieldType);
+        mFixture = new Fixture<BenchmarkModel>(klass);
+        mFixture.populate(rows);
+        mManager = mFixture.manager;
+
+        mModel = mManager.find(1 + rows / 2);
+        mJson = mModel.toJson();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mFixture.close();
+    }
+
+    private long randomId() {
+        return 1 + mRandom.nextInt(rows);
+    }
+
+    @Benchmark
+    public BenchmarkModel saveNew() {
+        final BenchmarkModel model = mManager.create();
+        model.fill(rows + 1);
+        model.save();
+        return model;
+    }
+
+    @Benchmark
+    public BenchmarkModel saveExisting() {
+        mModel.save();
+        return mModel;
+    }
+
+    @Benchmark
+    public BenchmarkModel find() throws InstanceNotFoundException {
+        return mManager.find(randomId());
+    }
+
+    @Benchmark
+    public List<BenchmarkModel> all() {
+        return mManager.all();
+    }
+
+    /**
+     * Scans all the rows with a single instance
+     */
+    @Benchmark
+    public long forEach() {
+        final long[] sum = new long[1];
+        mManager.forEach(null, new RoboManager.Visitor<BenchmarkModel>() {
+            @Override
+            public boolean visit(BenchmarkModel model) {
+                sum[0] += model.getId();
+                return true;
+            }
+        });
+        return sum[0];
+    }
+
+    /**
+     * Selects 1% of the rows
+     */
+    @Benchmark
+    public List<BenchmarkModel> where() {
+        final int from = mRandom.nextInt(rows - rows / 100);
+        return mManager.where("key >= ? AND key < ?", new String[] { String.valueOf(from),
+                        String.valueOf(from + rows / 100) });
+    }
+
+    @Benchmark
+    public int count() {
+        return mManager.count();
+    }
+
+    @Benchmark
+    public BenchmarkModel createFromJson() {
+        return mManager.create(mJson);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return mModel.toJson();
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nonninz.robomodel.benchmark.Models.BenchmarkModel;
+
+/**
+ * Benchmarks the first access to a table that does not match its model: reading the stored schema
+ * and migrating the table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 50)
+@Fork(1)
+public class SchemaRepairBenchmark {
+
+    @Param({ "narrow", "wide" })
+    public String width;
+
+    @Param({ "primitive", "enum", "json" })
+    public String fieldType;
+
+    private Fixture<BenchmarkModel> mFixture;
+
+    @SuppressWarnings("unchecked")
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final Class<BenchmarkModel> klass = (Class<BenchmarkModel>) Models.get(width, fieldType);
+        mFixture = new Fixture<BenchmarkModel>(klass);
+    }
+
+    /**
+     * Leaves a table with only the id and key columns, holding one row
+     */
+    @Setup(Level.Invocation)
+    public void breakTable() {
+        final String tableName = mFixture.tableName();
+        mFixture.manager.dropTable();
+        mFixture.database().execSQL("CREATE TABLE " + tableName
+                        + " (key INTEGER, _id integer primary key autoincrement)");
+        mFixture.database().execSQL("INSERT INTO " + tableName + " (key) VALUES (0)");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mFixture.close();
+    }
+
+    @Benchmark
+    public BenchmarkModel repairOnSave() {
+        final BenchmarkModel model = mFixture.manager.create();
+        model.fill(1);
+        model.save();
+        return model;
+    }
+
+    @Benchmark
+    public int createOnCount() {
+        mFixture.manager.dropTable();
+        return mFixture.manager.count();
+    }
+}
@@ -0,0 +1,154 @@
+package android.content;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stand-in for the Android ContentValues.
+ */
+public final class ContentValues {
+    private final Map<String, Object> mValues;
+
+    public ContentValues() {
+        mValues = new LinkedHashMap<String, Object>();
+    }
+
+    public ContentValues(int size) {
+        mValues = new LinkedHashMap<String, Object>(size);
+    }
+
+    public ContentValues(ContentValues from) {
+        mValues = new LinkedHashMap<String, Object>(from.mValues);
+    }
+
+    public void put(String key, String value) {
+        mValues.put(key, value);
+    }
+
+    public void put(String key, Byte value) {
+        mValues.put(key, value);
+    }
+
+    public void put(String key, Short value) {
+        mValues.put(key, value);
+    }
+
+    public void put(String key, Integer value) {
+        mValues.put(key, value);
+    }
+
+    public void put(String key, Long value) {
+        mValues.put(key, value);
+    }
+
+    public void put(String key, Float value) {
+        mValues.put(key, value);
+    }
+
+    public void put(String key, Double value) {
+        mValues.put(key, value);
+    }
+
+    public void put(String key, Boolean value) {
+        mValues.put(key, value);
+    }
+
+    public void put(String key, byte[] value) {
+        mValues.put(key, value);
+    }
+
+    public void putNull(String key) {
+        mValues.put(key, null);
+    }
+
+    public void putAll(ContentValues other) {
+        mValues.putAll(other.mValues);
+    }
+
+    public int size() {
+        return mValues.size();
+    }
+
+    public void remove(String key) {
+        mValues.remove(key);
+    }
+
+    public void clear() {
+        mValues.clear();
+    }
+
+    public boolean containsKey(String key) {
+        return mValues.containsKey(key);
+    }
+
+    public Object get(String key) {
+        return mValues.get(key);
+    }
+
+    public String getAsString(String key) {
+        final Object value = mValues.get(key);
+        return value != null ? value.toString() : null;
+    }
+
+    public Long getAsLong(String key) {
+        final Object value = mValues.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : null;
+    }
+
+    public Integer getAsInteger(String key) {
+        final Object value = mValues.get(key);
+        return value instanceof Number ? ((Number) value).intValue() : null;
+    }
+
+    public Short getAsShort(String key) {
+        final Object value = mValues.get(key);
+        return value instanceof Number ? ((Number) value).shortValue() : null;
+    }
+
+    public Byte getAsByte(String key) {
+        final Object value = mValues.get(key);
+        return value instanceof Number ? ((Number) value).byteValue() : null;
+    }
+
+    public Double getAsDouble(String key) {
+        final Object value = mValues.get(key);
+        return value instanceof Number ? ((Number) value).doubleValue() : null;
+    }
+
+    public Float getAsFloat(String key) {
+        final Object value = mValues.get(key);
+        return value instanceof Number ? ((Number) value).floatValue() : null;
+    }
+
+    public Boolean getAsBoolean(String key) {
+        final Object value = mValues.get(key);
+        if (value instanceof Number) {
+            return ((Number) value).intValue() != 0;
+        }
+        return value instanceof Boolean ? (Boolean) value : null;
+    }
+
+    public byte[] getAsByteArray(String key) {
+        final Object value = mValues.get(key);
+        return value instanceof byte[] ? (byte[]) value : null;
+    }
+
+    public Set<Map.Entry<String, Object>> valueSet() {
+        return mValues.entrySet();
+    }
+
+    public Set<String> keySet() {
+        return mValues.keySet();
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        return object instanceof ContentValues && mValues.equals(((ContentValues) object).mValues);
+    }
+
+    @Override
+    public int hashCode() {
+        return mValues.hashCode();
+    }
+}
@@ -0,0 +1,53 @@
+package android.content;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Stand-in for the Android Context: databases are SQLite files in a directory.
+ */
+public class Context {
+    public static final int MODE_PRIVATE = 0;
+
+    private final File mDirectory;
+    private final String mPackageName;
+    private final Map<String, SQLiteDatabase> mDatabases = new HashMap<String, SQLiteDatabase>();
+
+    public Context(File directory, String packageName) {
+        mDirectory = directory;
+        mPackageName = packageName;
+    }
+
+    public String getPackageName() {
+        return mPackageName;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public synchronized SQLiteDatabase openOrCreateDatabase(String name, int mode,
+                    SQLiteDatabase.CursorFactory factory) {
+        SQLiteDatabase db = mDatabases.get(name);
+        if (db == null || !db.isOpen()) {
+            db = SQLiteDatabase.openOrCreateDatabase(getDatabasePath(name).getPath(), factory);
+            mDatabases.put(name, db);
+        }
+        return db;
+    }
+
+    public synchronized boolean deleteDatabase(String name) {
+        final SQLiteDatabase db = mDatabases.remove(name);
+        if (db != null) {
+            db.close();
+        }
+        return getDatabasePath(name).delete();
+    }
+
+    public File getDatabasePath(String name) {
+        return new File(mDirectory, name);
+    }
+}
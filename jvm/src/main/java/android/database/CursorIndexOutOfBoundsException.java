@@ -0,0 +1,9 @@
+package android.database;
+
+public class CursorIndexOutOfBoundsException extends IndexOutOfBoundsException {
+    private static final long serialVersionUID = 1L;
+
+    public CursorIndexOutOfBoundsException(String message) {
+        super(message);
+    }
+}
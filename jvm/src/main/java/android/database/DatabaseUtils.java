@@ -0,0 +1,80 @@
+package android.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteProgram;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Stand-in for the Android DatabaseUtils.
+ */
+public class DatabaseUtils {
+
+    public static long queryNumEntries(SQLiteDatabase db, String table) {
+        return queryNumEntries(db, table, null, null);
+    }
+
+    public static long queryNumEntries(SQLiteDatabase db, String table, String selection) {
+        return queryNumEntries(db, table, selection, null);
+    }
+
+    public static long queryNumEntries(SQLiteDatabase db, String table, String selection,
+                    String[] selectionArgs) {
+        final String where = selection != null && selection.length() > 0 ? " where " + selection
+                        : "";
+        return longForQuery(db, "select count(*) from " + table + where, selectionArgs);
+    }
+
+    public static long longForQuery(SQLiteDatabase db, String query, String[] selectionArgs) {
+        final SQLiteStatement statement = db.compileStatement(query);
+        try {
+            if (selectionArgs != null) {
+                for (int i = 0; i < selectionArgs.length; i++) {
+                    statement.bindString(i + 1, selectionArgs[i]);
+                }
+            }
+            return statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+        }
+    }
+
+    public static String stringForQuery(SQLiteDatabase db, String query, String[] selectionArgs) {
+        final SQLiteStatement statement = db.compileStatement(query);
+        try {
+            if (selectionArgs != null) {
+                for (int i = 0; i < selectionArgs.length; i++) {
+                    statement.bindString(i + 1, selectionArgs[i]);
+                }
+            }
+            return statement.simpleQueryForString();
+        } finally {
+            statement.close();
+        }
+    }
+
+    public static void bindObjectToProgram(SQLiteProgram program, int index, Object value) {
+        if (value == null) {
+            program.bindNull(index);
+        } else if (value instanceof Double || value instanceof Float) {
+            program.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            program.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            program.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            program.bindBlob(index, (byte[]) value);
+        } else {
+            program.bindString(index, value.toString());
+        }
+    }
+
+    public static String sqlEscapeString(String value) {
+        final StringBuilder sb = new StringBuilder();
+        appendEscapedSQLString(sb, value);
+        return sb.toString();
+    }
+
+    public static void appendEscapedSQLString(StringBuilder sb, String value) {
+        sb.append('\'').append(value.replace("'", "''")).append('\'');
+    }
+}
@@ -0,0 +1,131 @@
+package android.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Cursor over rows held in memory, like the Android one.
+ */
+public class MatrixCursor extends AbstractCursor {
+    private final String[] mColumns;
+    private final List<Object[]> mRows = new ArrayList<Object[]>();
+
+    public MatrixCursor(String[] columnNames) {
+        mColumns = columnNames;
+    }
+
+    public MatrixCursor(String[] columnNames, int initialCapacity) {
+        mColumns = columnNames;
+    }
+
+    public void addRow(Object[] row) {
+        mRows.add(row);
+    }
+
+    private Object get(int column) {
+        if (column < 0 || column >= mColumns.length) {
+            throw new IllegalStateException("Couldn't read row " + mPos + ", col " + column
+                            + " from cursor");
+        }
+        if (mPos < 0 || mPos >= mRows.size()) {
+            throw new CursorIndexOutOfBoundsException("Index " + mPos
+                            + " requested, with a size of " + mRows.size());
+        }
+        return mRows.get(mPos)[column];
+    }
+
+    @Override
+    public int getCount() {
+        return mRows.size();
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumns;
+    }
+
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        final Object value = get(columnIndex);
+        if (value instanceof String) {
+            return ((String) value).getBytes();
+        }
+        return (byte[]) value;
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        final Object value = get(columnIndex);
+        if (value instanceof byte[]) {
+            throw new SQLException("Unable to convert BLOB to string");
+        }
+        return value != null ? value.toString() : null;
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        return (short) getLong(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return (int) getLong(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        final Object value = get(columnIndex);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String) {
+            try {
+                return (long) Double.parseDouble((String) value);
+            } catch (final NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        return (float) getDouble(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        final Object value = get(columnIndex);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Double.parseDouble((String) value);
+            } catch (final NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public int getType(int columnIndex) {
+        final Object value = get(columnIndex);
+        if (value == null) {
+            return FIELD_TYPE_NULL;
+        } else if (value instanceof Double || value instanceof Float) {
+            return FIELD_TYPE_FLOAT;
+        } else if (value instanceof Number) {
+            return FIELD_TYPE_INTEGER;
+        } else if (value instanceof byte[]) {
+            return FIELD_TYPE_BLOB;
+        }
+        return FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return get(columnIndex) == null;
+    }
+}
@@ -0,0 +1,13 @@
+package android.database.sqlite;
+
+public class SQLiteConstraintException extends SQLiteException {
+    private static final long serialVersionUID = 1L;
+
+    public SQLiteConstraintException(String error) {
+        super(error);
+    }
+
+    public SQLiteConstraintException(String error, Throwable cause) {
+        super(error, cause);
+    }
+}
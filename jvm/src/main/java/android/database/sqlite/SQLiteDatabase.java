@@ -0,0 +1,368 @@
+package android.database.sqlite;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+
+/**
+ * Stand-in for the Android SQLiteDatabase, backed by sqlite-jdbc. Cursors are filled eagerly,
+ * like a CursorWindow holding the whole result. A transaction belongs to the thread that began
+ * it: the other threads wait for it to end.
+ */
+public final class SQLiteDatabase {
+    public interface CursorFactory {
+    }
+
+    public static final int CONFLICT_NONE = 0;
+    public static final int CONFLICT_ROLLBACK = 1;
+    public static final int CONFLICT_ABORT = 2;
+    public static final int CONFLICT_FAIL = 3;
+    public static final int CONFLICT_IGNORE = 4;
+    public static final int CONFLICT_REPLACE = 5;
+
+    private static final String[] CONFLICT_VALUES = new String[] { "", " OR ROLLBACK ",
+                    " OR ABORT ", " OR FAIL ", " OR IGNORE ", " OR REPLACE " };
+
+    private static final int SQLITE_CONSTRAINT = 19;
+
+    private final Connection mConnection;
+    private final String mPath;
+    /** Held for each statement, and by the thread in a transaction until it ends */
+    private final ReentrantLock mLock = new ReentrantLock();
+    // Only accessed while holding mLock
+    private int mTransactionDepth;
+    private boolean mTransactionFailed;
+    private boolean mLevelSuccessful;
+
+    private SQLiteDatabase(String path) {
+        mPath = path;
+        try {
+            mConnection = DriverManager.getConnection("jdbc:sqlite:" + path);
+        } catch (final SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    public static SQLiteDatabase openOrCreateDatabase(String path, CursorFactory factory) {
+        return new SQLiteDatabase(path);
+    }
+
+    public static SQLiteDatabase create(CursorFactory factory) {
+        return new SQLiteDatabase(":memory:");
+    }
+
+    static SQLiteException wrap(SQLException e) {
+        if (e.getErrorCode() == SQLITE_CONSTRAINT) {
+            return new SQLiteConstraintException(e.getMessage(), e);
+        }
+        return new SQLiteException(e.getMessage(), e);
+    }
+
+    Connection getConnection() {
+        return mConnection;
+    }
+
+    void lock() {
+        mLock.lock();
+    }
+
+    void unlock() {
+        mLock.unlock();
+    }
+
+    long lastInsertRowId() throws SQLException {
+        final Statement statement = mConnection.createStatement();
+        try {
+            final ResultSet result = statement.executeQuery("SELECT last_insert_rowid()");
+            result.next();
+            return result.getLong(1);
+        } finally {
+            statement.close();
+        }
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    public Cursor query(String table, String[] columns, String selection,
+                    String[] selectionArgs, String groupBy, String having, String orderBy) {
+        return query(false, table, columns, selection, selectionArgs, groupBy, having, orderBy,
+                        null);
+    }
+
+    public Cursor query(String table, String[] columns, String selection,
+                    String[] selectionArgs, String groupBy, String having, String orderBy,
+                    String limit) {
+        return query(false, table, columns, selection, selectionArgs, groupBy, having, orderBy,
+                        limit);
+    }
+
+    public Cursor query(boolean distinct, String table, String[] columns, String selection,
+                    String[] selectionArgs, String groupBy, String having, String orderBy,
+                    String limit) {
+        final String sql = SQLiteQueryBuilder.buildQueryString(distinct, table, columns,
+                        selection, groupBy, having, orderBy, limit);
+        return rawQuery(sql, selectionArgs);
+    }
+
+    public Cursor rawQuery(String sql, String[] selectionArgs) {
+        mLock.lock();
+        try {
+            final PreparedStatement statement = mConnection.prepareStatement(sql);
+            try {
+                if (selectionArgs != null) {
+                    for (int i = 0; i < selectionArgs.length; i++) {
+                        statement.setString(i + 1, selectionArgs[i]);
+                    }
+                }
+                final ResultSet result = statement.executeQuery();
+                final ResultSetMetaData meta = result.getMetaData();
+                final String[] columns = new String[meta.getColumnCount()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = meta.getColumnLabel(i + 1);
+                }
+                final MatrixCursor cursor = new MatrixCursor(columns);
+                while (result.next()) {
+                    final Object[] row = new Object[columns.length];
+                    for (int i = 0; i < columns.length; i++) {
+                        row[i] = result.getObject(i + 1);
+                    }
+                    cursor.addRow(row);
+                }
+                result.close();
+                return cursor;
+            } finally {
+                statement.close();
+            }
+        } catch (final SQLException e) {
+            throw wrap(e);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public long insert(String table, String nullColumnHack, ContentValues values) {
+        try {
+            return insertOrThrow(table, nullColumnHack, values);
+        } catch (final android.database.SQLException e) {
+            return -1;
+        }
+    }
+
+    public long insertOrThrow(String table, String nullColumnHack, ContentValues values) {
+        return insertWithOnConflict(table, nullColumnHack, values, CONFLICT_NONE);
+    }
+
+    public long replace(String table, String nullColumnHack, ContentValues values) {
+        return insertWithOnConflict(table, nullColumnHack, values, CONFLICT_REPLACE);
+    }
+
+    public long insertWithOnConflict(String table, String nullColumnHack, ContentValues values,
+                    int conflictAlgorithm) {
+        final StringBuilder sql = new StringBuilder("INSERT")
+                        .append(CONFLICT_VALUES[conflictAlgorithm]).append(" INTO ")
+                        .append(table).append(" (");
+        final Object[] args = new Object[values.size()];
+        int i = 0;
+        for (final Map.Entry<String, Object> entry : values.valueSet()) {
+            sql.append(i > 0 ? ", " : "").append(entry.getKey());
+            args[i++] = entry.getValue();
+        }
+        if (i == 0) {
+            sql.append(nullColumnHack).append(") VALUES (NULL)");
+        } else {
+            sql.append(") VALUES (");
+            for (int c = 0; c < i; c++) {
+                sql.append(c > 0 ? ", ?" : "?");
+            }
+            sql.append(")");
+        }
+
+        final SQLiteStatement statement = compileStatement(sql.toString());
+        try {
+            for (int c = 0; c < args.length; c++) {
+                DatabaseUtils.bindObjectToProgram(statement, c + 1, args[c]);
+            }
+            return statement.executeInsert();
+        } finally {
+            statement.close();
+        }
+    }
+
+    public int update(String table, ContentValues values, String whereClause, String[] whereArgs) {
+        return updateWithOnConflict(table, values, whereClause, whereArgs, CONFLICT_NONE);
+    }
+
+    public int updateWithOnConflict(String table, ContentValues values, String whereClause,
+                    String[] whereArgs, int conflictAlgorithm) {
+        final StringBuilder sql = new StringBuilder("UPDATE")
+                        .append(CONFLICT_VALUES[conflictAlgorithm]).append(" ").append(table)
+                        .append(" SET ");
+        final Object[] args = new Object[values.size()];
+        int i = 0;
+        for (final Map.Entry<String, Object> entry : values.valueSet()) {
+            sql.append(i > 0 ? ", " : "").append(entry.getKey()).append(" = ?");
+            args[i++] = entry.getValue();
+        }
+        if (whereClause != null && whereClause.length() > 0) {
+            sql.append(" WHERE ").append(whereClause);
+        }
+
+        final SQLiteStatement statement = compileStatement(sql.toString());
+        try {
+            for (int c = 0; c < args.length; c++) {
+                DatabaseUtils.bindObjectToProgram(statement, c + 1, args[c]);
+            }
+            bindStrings(statement, args.length, whereArgs);
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    public int delete(String table, String whereClause, String[] whereArgs) {
+        final String where = whereClause != null && whereClause.length() > 0 ? " WHERE "
+                        + whereClause : "";
+        final SQLiteStatement statement = compileStatement("DELETE FROM " + table + where);
+        try {
+            bindStrings(statement, 0, whereArgs);
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static void bindStrings(SQLiteStatement statement, int offset, String[] args) {
+        if (args != null) {
+            for (int i = 0; i < args.length; i++) {
+                statement.bindString(offset + i + 1, args[i]);
+            }
+        }
+    }
+
+    public void execSQL(String sql) {
+        mLock.lock();
+        try {
+            final Statement statement = mConnection.createStatement();
+            try {
+                statement.execute(sql);
+            } finally {
+                statement.close();
+            }
+        } catch (final SQLException e) {
+            throw wrap(e);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public void execSQL(String sql, Object[] bindArgs) {
+        final SQLiteStatement statement = compileStatement(sql);
+        try {
+            for (int i = 0; i < bindArgs.length; i++) {
+                DatabaseUtils.bindObjectToProgram(statement, i + 1, bindArgs[i]);
+            }
+            statement.execute();
+        } finally {
+            statement.close();
+        }
+    }
+
+    public SQLiteStatement compileStatement(String sql) {
+        return new SQLiteStatement(this, sql);
+    }
+
+    public void beginTransaction() {
+        // The lock is kept until the matching endTransaction()
+        mLock.lock();
+        try {
+            if (mTransactionDepth == 0) {
+                mConnection.setAutoCommit(false);
+                mTransactionFailed = false;
+            }
+            mTransactionDepth++;
+            mLevelSuccessful = false;
+        } catch (final SQLException e) {
+            mLock.unlock();
+            throw wrap(e);
+        }
+    }
+
+    public void setTransactionSuccessful() {
+        checkTransaction();
+        mLevelSuccessful = true;
+    }
+
+    public void endTransaction() {
+        checkTransaction();
+        try {
+            mTransactionFailed |= !mLevelSuccessful;
+            // The enclosing level is successful only once it is marked itself
+            mLevelSuccessful = false;
+            mTransactionDepth--;
+            if (mTransactionDepth == 0) {
+                try {
+                    if (mTransactionFailed) {
+                        mConnection.rollback();
+                    } else {
+                        mConnection.commit();
+                    }
+                    mConnection.setAutoCommit(true);
+                } catch (final SQLException e) {
+                    throw wrap(e);
+                }
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void checkTransaction() {
+        if (!inTransaction()) {
+            throw new IllegalStateException("No transaction in progress on this thread");
+        }
+    }
+
+    public boolean inTransaction() {
+        return mLock.isHeldByCurrentThread() && mTransactionDepth > 0;
+    }
+
+    public int getVersion() {
+        return (int) DatabaseUtils.longForQuery(this, "PRAGMA user_version", null);
+    }
+
+    public void setVersion(int version) {
+        execSQL("PRAGMA user_version = " + version);
+    }
+
+    public boolean isOpen() {
+        try {
+            return !mConnection.isClosed();
+        } catch (final SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    public void close() {
+        mLock.lock();
+        try {
+            mConnection.close();
+        } catch (final SQLException e) {
+            throw wrap(e);
+        } finally {
+            mLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package android.database.sqlite;
+
+public class SQLiteDoneException extends SQLiteException {
+    private static final long serialVersionUID = 1L;
+
+    public SQLiteDoneException(String error) {
+        super(error);
+    }
+}
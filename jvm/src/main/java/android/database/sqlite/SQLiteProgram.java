@@ -0,0 +1,84 @@
+package android.database.sqlite;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Stand-in for the Android SQLiteProgram, backed by a JDBC prepared statement.
+ */
+public abstract class SQLiteProgram {
+    final SQLiteDatabase mDatabase;
+    final PreparedStatement mStatement;
+
+    SQLiteProgram(SQLiteDatabase database, String sql) {
+        mDatabase = database;
+        database.lock();
+        try {
+            mStatement = database.getConnection().prepareStatement(sql);
+        } catch (final SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        } finally {
+            database.unlock();
+        }
+    }
+
+    public void bindNull(int index) {
+        try {
+            mStatement.setNull(index, Types.NULL);
+        } catch (final SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        }
+    }
+
+    public void bindLong(int index, long value) {
+        try {
+            mStatement.setLong(index, value);
+        } catch (final SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        }
+    }
+
+    public void bindDouble(int index, double value) {
+        try {
+            mStatement.setDouble(index, value);
+        } catch (final SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        }
+    }
+
+    public void bindString(int index, String value) {
+        try {
+            mStatement.setString(index, value);
+        } catch (final SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        }
+    }
+
+    public void bindBlob(int index, byte[] value) {
+        try {
+            mStatement.setBytes(index, value);
+        } catch (final SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        }
+    }
+
+    public void clearBindings() {
+        try {
+            mStatement.clearParameters();
+        } catch (final SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        }
+    }
+
+    public void close() {
+        mDatabase.lock();
+        try {
+            mStatement.close();
+        } catch (final SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        } finally {
+            mDatabase.unlock();
+        }
+    }
+}
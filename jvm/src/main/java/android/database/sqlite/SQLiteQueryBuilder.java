@@ -0,0 +1,35 @@
+package android.database.sqlite;
+
+/**
+ * Stand-in for the Android SQLiteQueryBuilder.
+ */
+public class SQLiteQueryBuilder {
+
+    public static String buildQueryString(boolean distinct, String tables, String[] columns,
+                    String where, String groupBy, String having, String orderBy, String limit) {
+        final StringBuilder query = new StringBuilder("SELECT ");
+        if (distinct) {
+            query.append("DISTINCT ");
+        }
+        if (columns != null && columns.length > 0) {
+            for (int i = 0; i < columns.length; i++) {
+                query.append(i > 0 ? ", " : "").append(columns[i]);
+            }
+        } else {
+            query.append("*");
+        }
+        query.append(" FROM ").append(tables);
+        appendClause(query, " WHERE ", where);
+        appendClause(query, " GROUP BY ", groupBy);
+        appendClause(query, " HAVING ", having);
+        appendClause(query, " ORDER BY ", orderBy);
+        appendClause(query, " LIMIT ", limit);
+        return query.toString();
+    }
+
+    private static void appendClause(StringBuilder query, String name, String clause) {
+        if (clause != null && clause.length() > 0) {
+            query.append(name).append(clause);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package android.database.sqlite;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Stand-in for the Android SQLiteStatement.
+ */
+public final class SQLiteStatement extends SQLiteProgram {
+
+    SQLiteStatement(SQLiteDatabase database, String sql) {
+        super(database, sql);
+    }
+
+    public void execute() {
+        mDatabase.lock();
+        try {
+            mStatement.execute();
+        } catch (final SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        } finally {
+            mDatabase.unlock();
+        }
+    }
+
+    public long executeInsert() {
+        mDatabase.lock();
+        try {
+            if (mStatement.executeUpdate() == 0) {
+                return -1;
+            }
+            return mDatabase.lastInsertRowId();
+        } catch (final SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        } finally {
+            mDatabase.unlock();
+        }
+    }
+
+    public int executeUpdateDelete() {
+        mDatabase.lock();
+        try {
+            return mStatement.executeUpdate();
+        } catch (final SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        } finally {
+            mDatabase.unlock();
+        }
+    }
+
+    public long simpleQueryForLong() {
+        mDatabase.lock();
+        try {
+            final ResultSet result = mStatement.executeQuery();
+            try {
+                if (!result.next()) {
+                    throw new SQLiteDoneException("not an error");
+                }
+                return result.getLong(1);
+            } finally {
+                result.close();
+            }
+        } catch (final SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        } finally {
+            mDatabase.unlock();
+        }
+    }
+
+    public String simpleQueryForString() {
+        mDatabase.lock();
+        try {
+            final ResultSet result = mStatement.executeQuery();
+            try {
+                if (!result.next()) {
+                    throw new SQLiteDoneException("not an error");
+                }
+                return result.getString(1);
+            } finally {
+                result.close();
+            }
+        } catch (final SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        } finally {
+            mDatabase.unlock();
+        }
+    }
+}
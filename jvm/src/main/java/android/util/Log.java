@@ -0,0 +1,58 @@
+package android.util;
+
+/**
+ * Stand-in for the Android Log. Messages are dropped unless robomodel.log is set.
+ */
+public final class Log {
+    private static final boolean ENABLED = Boolean.getBoolean("robomodel.log");
+
+    private static int print(String level, String tag, String msg, Throwable tr) {
+        if (ENABLED) {
+            System.err.println(level + "/" + tag + ": " + msg);
+            if (tr != null) {
+                tr.printStackTrace();
+            }
+        }
+        return 0;
+    }
+
+    public static int v(String tag, String msg) {
+        return print("V", tag, msg, null);
+    }
+
+    public static int v(String tag, String msg, Throwable tr) {
+        return print("V", tag, msg, tr);
+    }
+
+    public static int d(String tag, String msg) {
+        return print("D", tag, msg, null);
+    }
+
+    public static int d(String tag, String msg, Throwable tr) {
+        return print("D", tag, msg, tr);
+    }
+
+    public static int i(String tag, String msg) {
+        return print("I", tag, msg, null);
+    }
+
+    public static int i(String tag, String msg, Throwable tr) {
+        return print("I", tag, msg, tr);
+    }
+
+    public static int w(String tag, String msg) {
+        return print("W", tag, msg, null);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return print("W", tag, msg, tr);
+    }
+
+    public static int e(String tag, String msg) {
+        return print("E", tag, msg, null);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return print("E", tag, msg, tr);
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * The changes made to the table of a model in a short time window, or in one transaction.
+ * Many writes to the same table are merged into a single event.
+ */
+public final class ChangeEvent {
+    private final String mTableName;
+    private final Set<Long> mIds;
+    private final boolean mWholeTable;
+
+    ChangeEvent(String tableName, Set<Long> ids, boolean wholeTable) {
+        mTableName = tableName;
+        mIds = Collections.unmodifiableSet(ids);
+        mWholeTable = wholeTable;
+    }
+
+    public String getTableName() {
+        return mTableName;
+    }
+
+    /**
+     * @return the ids of the inserted, updated or deleted records that are known
+     */
+    public Set<Long> getIds() {
+        return mIds;
+    }
+
+    /**
+     * @return true if the table was changed by a statement affecting an unknown set of records,
+     *         like {@link RoboManager#deleteWhere(String)} or {@link RoboManager#deleteAll()}
+     */
+    public boolean isWholeTable() {
+        return mWholeTable;
+    }
+
+    /**
+     * @return true if the record with the given id may have changed
+     */
+    public boolean isAffected(long id) {
+        return mWholeTable || mIds.contains(id);
+    }
+
+    @Override
+    public String toString() {
+        return mTableName + " {ids: " + mIds + ", wholeTable: " + mWholeTable + "}";
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel;
+
+/**
+ * Listens to the changes of the table of a model, see
+ * {@link RoboManager#addChangeListener(ChangeListener)}.
+ */
+public interface ChangeListener {
+
+    /**
+     * Called on a background thread shared by all the listeners, so it should return quickly.
+     */
+    void onChange(ChangeEvent event);
+
+    /**
+     * Selects the events a listener is interested in.
+     */
+    interface Filter {
+        boolean accept(ChangeEvent event);
+    }
+}
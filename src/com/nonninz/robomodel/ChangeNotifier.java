@@ -0,0 +1,306 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.nonninz.robomodel.util.Ln;
+
+/**
+ * ChangeNotifier:
+ * 1. Collects the changes made by DatabaseManager to every table
+ * 2. Delivers them to the listeners, merged per table, a short window after the first of
+ * them. The changes made in a batch are held until the outermost batch of the thread ends,
+ * and dropped if it failed
+ * 
+ * 3. Invalidates the {@link QueryCache} results and the {@link ReadAhead} windows of the
+ * changed tables
+ * 
+ * Nothing is collected while no listener is registered.
+ */
+final class ChangeNotifier {
+    static final long DEFAULT_WINDOW_MILLIS = 50;
+
+    private static class Registration {
+        final ChangeListener mListener;
+        final ChangeListener.Filter mFilter;
+
+        Registration(ChangeListener listener, ChangeListener.Filter filter) {
+            mListener = listener;
+            mFilter = filter;
+        }
+    }
+
+    private static class PendingChange {
+        final Set<Long> mIds = new HashSet<Long>();
+        boolean mWholeTable;
+
+        void addAll(PendingChange change) {
+            mIds.addAll(change.mIds);
+            mWholeTable |= change.mWholeTable;
+        }
+    }
+
+    /** The changes of the transaction of a thread */
+    private static class Batch {
+        final Map<String, PendingChange> mPending = new HashMap<String, PendingChange>();
+        final Set<String> mTables = new HashSet<String>();
+        int mDepth;
+        boolean mFailed;
+    }
+
+    private static final Map<String, List<Registration>> sListeners =
+                    new ConcurrentHashMap<String, List<Registration>>();
+    private static final Object sLock = new Object();
+    private static Map<String, PendingChange> sPending = new HashMap<String, PendingChange>();
+    private static final ThreadLocal<Batch> sBatch = new ThreadLocal<Batch>();
+    private static boolean sFlushScheduled;
+    private static long sWindowMillis = DEFAULT_WINDOW_MILLIS;
+    private static ScheduledExecutorService sExecutor;
+
+    private static final Runnable sFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private ChangeNotifier() {
+    }
+
+    static void addListener(String tableName, ChangeListener listener,
+                    ChangeListener.Filter filter) {
+        synchronized (sLock) {
+            List<Registration> registrations = sListeners.get(tableName);
+            if (registrations == null) {
+                registrations = new CopyOnWriteArrayList<Registration>();
+                sListeners.put(tableName, registrations);
+            }
+            registrations.add(new Registration(listener, filter));
+        }
+    }
+
+    static void removeListener(String tableName, ChangeListener listener) {
+        synchronized (sLock) {
+            final List<Registration> registrations = sListeners.get(tableName);
+            if (registrations == null) {
+                return;
+            }
+            for (final Registration registration : registrations) {
+                if (registration.mListener == listener) {
+                    registrations.remove(registration);
+                }
+            }
+            if (registrations.isEmpty()) {
+                sListeners.remove(tableName);
+            }
+        }
+    }
+
+    static void setWindow(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("The window can not be negative");
+        }
+        synchronized (sLock) {
+            sWindowMillis = millis;
+        }
+    }
+
+    static void record(String tableName, long id) {
+        invalidate(tableName);
+        if (sListeners.containsKey(tableName)) {
+            final Batch batch = sBatch.get();
+            if (batch != null) {
+                getPending(batch.mPending, tableName).mIds.add(id);
+                return;
+            }
+            synchronized (sLock) {
+                getPending(sPending, tableName).mIds.add(id);
+                scheduleFlush();
+            }
+        }
+    }
+
+    static void record(String tableName, long[] ids) {
+        invalidate(tableName);
+        if (sListeners.containsKey(tableName)) {
+            final Batch batch = sBatch.get();
+            if (batch != null) {
+                addIds(getPending(batch.mPending, tableName), ids);
+                return;
+            }
+            synchronized (sLock) {
+                addIds(getPending(sPending, tableName), ids);
+                scheduleFlush();
+            }
+        }
+    }
+
+    static void recordWholeTable(String tableName) {
+        invalidate(tableName);
+        if (sListeners.containsKey(tableName)) {
+            final Batch batch = sBatch.get();
+            if (batch != null) {
+                getPending(batch.mPending, tableName).mWholeTable = true;
+                return;
+            }
+            synchronized (sLock) {
+                getPending(sPending, tableName).mWholeTable = true;
+                scheduleFlush();
+            }
+        }
+    }
+
+    private static void invalidate(String tableName) {
+        QueryCache.invalidate(tableName);
+        ReadAhead.invalidate(tableName);
+        final Batch batch = sBatch.get();
+        if (batch != null) {
+            batch.mTables.add(tableName);
+        }
+    }
+
+    private static void addIds(PendingChange pending, long[] ids) {
+        for (final long id : ids) {
+            pending.mIds.add(id);
+        }
+    }
+
+    /**
+     * Holds the changes of the calling thread until the matching {@link #endBatch(boolean)}, so
+     * that a transaction is notified at once.
+     */
+    static void beginBatch() {
+        Batch batch = sBatch.get();
+        if (batch == null) {
+            batch = new Batch();
+            sBatch.set(batch);
+        }
+        batch.mDepth++;
+    }
+
+    /**
+     * @param successful
+     *            whether the work of the batch was committed. The changes are notified only if
+     *            every level of the batch was.
+     */
+    static void endBatch(boolean successful) {
+        final Batch batch = sBatch.get();
+        batch.mFailed |= !successful;
+        if (--batch.mDepth > 0) {
+            return;
+        }
+        sBatch.remove();
+
+        if (batch.mFailed) {
+            // Rolled back: what was read meanwhile is stale again
+            for (final String tableName : batch.mTables) {
+                QueryCache.invalidate(tableName);
+                ReadAhead.invalidate(tableName);
+            }
+            return;
+        }
+        if (!batch.mPending.isEmpty()) {
+            synchronized (sLock) {
+                for (final Map.Entry<String, PendingChange> entry : batch.mPending.entrySet()) {
+                    getPending(sPending, entry.getKey()).addAll(entry.getValue());
+                }
+                scheduleFlush();
+            }
+        }
+    }
+
+    /**
+     * Runs the work on the thread delivering the notifications
+     */
+    static void execute(Runnable work) {
+        synchronized (sLock) {
+            getExecutor().execute(work);
+        }
+    }
+
+    private static PendingChange getPending(Map<String, PendingChange> changes,
+                    String tableName) {
+        PendingChange pending = changes.get(tableName);
+        if (pending == null) {
+            pending = new PendingChange();
+            changes.put(tableName, pending);
+        }
+        return pending;
+    }
+
+    private static void scheduleFlush() {
+        if (sFlushScheduled) {
+            return;
+        }
+
+        getExecutor().schedule(sFlush, sWindowMillis, TimeUnit.MILLISECONDS);
+        sFlushScheduled = true;
+    }
+
+    private static ScheduledExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "RoboModel-changes");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+
+    private static void flush() {
+        final Map<String, PendingChange> pending;
+        synchronized (sLock) {
+            sFlushScheduled = false;
+            pending = sPending;
+            sPending = new HashMap<String, PendingChange>();
+        }
+
+        for (final Map.Entry<String, PendingChange> entry : pending.entrySet()) {
+            final List<Registration> registrations = sListeners.get(entry.getKey());
+            if (registrations == null) {
+                continue;
+            }
+
+            final PendingChange change = entry.getValue();
+            final ChangeEvent event = new ChangeEvent(entry.getKey(), change.mIds,
+                            change.mWholeTable);
+            for (final Registration registration : registrations) {
+                try {
+                    if (registration.mFilter == null || registration.mFilter.accept(event)) {
+                        registration.mListener.onChange(event);
+                    }
+                } catch (final RuntimeException e) {
+                    Ln.w(e, "Change listener failed on %s", event);
+                }
+            }
+        }
+    }
+}
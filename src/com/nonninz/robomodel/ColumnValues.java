@@ -0,0 +1,258 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel;
+
+import static android.provider.BaseColumns._ID;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+
+import com.nonninz.robomodel.storage.Sql;
+import com.nonninz.robomodel.storage.StorageStatement;
+
+/**
+ * The values of the columns of a table, by ordinal. They are held in primitive arrays with a
+ * type tag per column, so putting a value neither boxes it nor hashes the name of its column,
+ * and a model reuses the same instance for all its saves. The values are bound straight to
+ * compiled statements.
+ */
+final class ColumnValues {
+    static final byte ABSENT = 0;
+    static final byte NULL = 1;
+    static final byte INTEGER = 2;
+    static final byte REAL = 3;
+    static final byte TEXT = 4;
+    static final byte BLOB = 5;
+
+    /**
+     * The columns of a table, shared by all the values for it, with the statements writing all
+     * of them
+     */
+    static final class Layout {
+        final String tableName;
+        final String[] columns;
+        private String mInsertSql;
+        private String mUpdateSql;
+
+        Layout(String tableName, String[] columns) {
+            this.tableName = tableName;
+            this.columns = columns;
+        }
+
+        Layout(String tableName, List<Field> fields) {
+            this(tableName, new String[fields.size()]);
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = fields.get(i).getName();
+            }
+        }
+
+        int indexOf(String column) {
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equals(column)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        synchronized String getInsertSql() {
+            if (mInsertSql == null) {
+                mInsertSql = buildInsertSql(tableName, columns);
+            }
+            return mInsertSql;
+        }
+
+        synchronized String getUpdateSql() {
+            if (mUpdateSql == null) {
+                mUpdateSql = Sql.buildUpdate(tableName, columns, _ID + " = ?");
+            }
+            return mUpdateSql;
+        }
+    }
+
+    private final Layout mLayout;
+    private final byte[] mTypes;
+    private final long[] mLongs;
+    private final double[] mDoubles;
+    private final Object[] mObjects;
+    private int mSize;
+
+    ColumnValues(Layout layout) {
+        mLayout = layout;
+        final int count = layout.columns.length;
+        mTypes = new byte[count];
+        mLongs = new long[count];
+        mDoubles = new double[count];
+        mObjects = new Object[count];
+    }
+
+    Layout getLayout() {
+        return mLayout;
+    }
+
+    /**
+     * @return the number of columns with a value
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @return whether every column has a value
+     */
+    boolean isComplete() {
+        return mSize == mTypes.length;
+    }
+
+    /**
+     * @return the columns with a value, in order
+     */
+    String[] getColumns() {
+        if (isComplete()) {
+            return mLayout.columns;
+        }
+        final String[] columns = new String[mSize];
+        for (int i = 0, c = 0; i < mTypes.length; i++) {
+            if (mTypes[i] != ABSENT) {
+                columns[c++] = mLayout.columns[i];
+            }
+        }
+        return columns;
+    }
+
+    void clear() {
+        Arrays.fill(mTypes, ABSENT);
+        Arrays.fill(mObjects, null);
+        mSize = 0;
+    }
+
+    private void setType(int column, byte type) {
+        if (mTypes[column] == ABSENT) {
+            mSize++;
+        }
+        mTypes[column] = type;
+    }
+
+    void putNull(int column) {
+        setType(column, NULL);
+        mObjects[column] = null;
+    }
+
+    void putLong(int column, long value) {
+        setType(column, INTEGER);
+        mLongs[column] = value;
+        mObjects[column] = null;
+    }
+
+    void putDouble(int column, double value) {
+        setType(column, REAL);
+        mDoubles[column] = value;
+        mObjects[column] = null;
+    }
+
+    void putString(int column, String value) {
+        if (value == null) {
+            putNull(column);
+        } else {
+            setType(column, TEXT);
+            mObjects[column] = value;
+        }
+    }
+
+    void putBlob(int column, byte[] value) {
+        if (value == null) {
+            putNull(column);
+        } else {
+            setType(column, BLOB);
+            mObjects[column] = value;
+        }
+    }
+
+    /**
+     * @return the value of the column, boxed, or null if it has none
+     */
+    Object get(int column) {
+        switch (mTypes[column]) {
+        case INTEGER:
+            return mLongs[column];
+        case REAL:
+            return mDoubles[column];
+        default:
+            return mObjects[column];
+        }
+    }
+
+    /**
+     * Binds the value of a column
+     */
+    void bind(StorageStatement statement, int index, int column) {
+        switch (mTypes[column]) {
+        case INTEGER:
+            statement.bindLong(index, mLongs[column]);
+            break;
+        case REAL:
+            statement.bindDouble(index, mDoubles[column]);
+            break;
+        case TEXT:
+            statement.bindString(index, (String) mObjects[column]);
+            break;
+        case BLOB:
+            statement.bindBlob(index, (byte[]) mObjects[column]);
+            break;
+        default:
+            statement.bindNull(index);
+        }
+    }
+
+    /**
+     * Binds the columns with a value, in order, from the given index
+     * 
+     * @return the index following the last bound value
+     */
+    int bindAll(StorageStatement statement, int index) {
+        for (int column = 0; column < mTypes.length; column++) {
+            if (mTypes[column] != ABSENT) {
+                bind(statement, index++, column);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return the statement inserting the columns with a value
+     */
+    String getInsertSql() {
+        return isComplete() ? mLayout.getInsertSql() : buildInsertSql(mLayout.tableName,
+                        getColumns());
+    }
+
+    /**
+     * @return the statement updating the columns with a value of the record whose id is bound
+     *         after them
+     */
+    String getUpdateSql() {
+        return isComplete() ? mLayout.getUpdateSql() : Sql.buildUpdate(mLayout.tableName,
+                        getColumns(), _ID + " = ?");
+    }
+
+    private static String buildInsertSql(String tableName, String[] columns) {
+        if (columns.length == 0) {
+            return "INSERT INTO " + tableName + " DEFAULT VALUES";
+        }
+        return Sql.buildInsert(tableName, columns);
+    }
+}
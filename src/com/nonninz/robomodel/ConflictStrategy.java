@@ -0,0 +1,29 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel;
+
+/**
+ * What {@link RoboManager#upsert(RoboModel, String, ConflictStrategy)} does when a record with
+ * the same unique key already exists.
+ */
+public enum ConflictStrategy {
+    /** Overwrite the existing record, keeping its id */
+    REPLACE,
+    /** Keep the existing record untouched */
+    IGNORE,
+    /** Overwrite the existing record only with the values that are not null */
+    MERGE_NON_NULL
+}
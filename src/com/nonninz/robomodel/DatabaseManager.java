@@ -18,16 +18,32 @@ package com.nonninz.robomodel;
 import static android.provider.BaseColumns._ID;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.database.CursorIndexOutOfBoundsException;
-import android.database.DatabaseUtils;
 import android.database.SQLException;
-import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 
+import com.nonninz.robomodel.annotations.BelongsTo;
+import com.nonninz.robomodel.annotations.EnumOrdinal;
+import com.nonninz.robomodel.annotations.FullText;
+import com.nonninz.robomodel.storage.AndroidStorageEngine;
+import com.nonninz.robomodel.storage.Sql;
+import com.nonninz.robomodel.storage.StorageDatabase;
+import com.nonninz.robomodel.storage.StorageEngine;
+import com.nonninz.robomodel.storage.StorageStatement;
 import com.nonninz.robomodel.util.Ln;
 
 /**
@@ -38,10 +54,30 @@ import com.nonninz.robomodel.util.Ln;
  * 
  */
 class DatabaseManager {
+    /** Ids per statement in bulk operations, to keep the SQL within SQLite limits */
+    static final int BULK_CHUNK_SIZE = 500;
+    /** Appended to the name of a table to name its full text index */
+    static final String FULL_TEXT_SUFFIX = "_fts";
+
     public static String where(long id) {
         return _ID + " = " + id;
     }
 
+    public static String where(long[] ids, int start, int end) {
+        return where(_ID, ids, start, end);
+    }
+
+    public static String where(String column, long[] ids, int start, int end) {
+        final StringBuilder sql = new StringBuilder(column).append(" IN (");
+        for (int i = start; i < end; i++) {
+            if (i > start) {
+                sql.append(',');
+            }
+            sql.append(ids[i]);
+        }
+        return sql.append(')').toString();
+    }
+
     public static String getTypeForField(Field field) {
         final Class<?> type = field.getType();
 
@@ -61,16 +97,33 @@ class DatabaseManager {
             return "INTEGER";
         } else if (type == Short.TYPE) {
             return "INTEGER";
+        } else if (NativeTypes.isNative(field)) {
+            return NativeTypes.getType(field);
         } else if (type.isEnum()) {
-            return "TEXT";
+            return field.isAnnotationPresent(EnumOrdinal.class) ? "INTEGER" : "TEXT";
+        } else if (field.isAnnotationPresent(BelongsTo.class)) {
+            return "INTEGER";
         }
         else {
             return "TEXT";
         }
     }
 
-    private static SQLiteDatabase sDatabase;
+    private static StorageEngine sStorageEngine = new AndroidStorageEngine();
+    private static volatile StorageDatabase sDatabase;
+    private static final Object sDatabaseLock = new Object();
     private static String sDatabaseName;
+    // Used from any thread. Checking and changing a table together runs in a transaction,
+    // which belongs to one thread at a time
+    private static final ConcurrentMap<String, Set<String>> sUniqueIndexes =
+                    new ConcurrentHashMap<String, Set<String>>();
+    private static final Set<String> sFullTextTables = Collections
+                    .synchronizedSet(new HashSet<String>());
+    private static final Set<String> sCheckedTables = Collections
+                    .synchronizedSet(new HashSet<String>());
+    /** Counted down when the initialization of the models finishes, null if not running */
+    private static volatile CountDownLatch sInitialization;
+    private static volatile Thread sInitializationThread;
     private final Context mContext;
 
     /**
@@ -87,32 +140,479 @@ class DatabaseManager {
         return sDatabaseName;
     }
 
+    long insertOrUpdate(String tableName, ColumnValues values, long id,
+                    StorageDatabase database) {
+        final RoboMetrics metrics = RoboMetrics.sInstance;
+        final long start = metrics != null ? System.nanoTime() : 0;
+
+        if (id == RoboModel.UNSAVED_MODEL_ID) {
+            final String sql = values.getInsertSql();
+            final StorageStatement statement = acquireStatement(database, tableName, values, sql);
+            final long newId;
+            try {
+                values.bindAll(statement, 1);
+                newId = statement.executeInsert();
+            } catch (final RuntimeException e) {
+                statement.close();
+                throw e;
+            }
+            releaseStatement(database, tableName, values, sql, statement);
+            if (metrics != null) {
+                metrics.onInsert(tableName, System.nanoTime() - start, 1);
+            }
+            ChangeNotifier.record(tableName, newId);
+            return newId;
+        } else if (values.size() == 0) {
+            // Every saved field is an unloaded lazy one: there is nothing to write
+            return id;
+        } else {
+            final String sql = values.getUpdateSql();
+            final StorageStatement statement = acquireStatement(database, tableName, values, sql);
+            final int count;
+            try {
+                statement.bindLong(values.bindAll(statement, 1), id);
+                count = statement.executeUpdateDelete();
+            } catch (final RuntimeException e) {
+                statement.close();
+                throw e;
+            }
+            releaseStatement(database, tableName, values, sql, statement);
+            if (metrics != null) {
+                metrics.onUpdate(tableName, System.nanoTime() - start, count);
+            }
+            if (count > 0) {
+                ChangeNotifier.record(tableName, id);
+            }
+            return id;
+        }
+    }
+
     /**
-     * @param tableName
-     * @param column
-     * @param type
-     * @param db
+     * @return the statement writing the values. Those of every column of the table are cached
+     *         by the {@link StatementCache}, while the others are compiled every time.
      */
-    private void addColumn(String tableName, String column, String type, SQLiteDatabase db) {
-        final String sql = String.format("ALTER TABLE %s ADD %s %s;", tableName, column,
-                        type);
-        db.execSQL(sql);
+    private static StorageStatement acquireStatement(StorageDatabase db, String tableName,
+                    ColumnValues values, String sql) {
+        return values.isComplete() ? StatementCache.acquire(db, tableName, sql) : db
+                        .compileStatement(sql);
     }
 
-    long insertOrUpdate(String tableName, TypedContentValues values, long id,
-                    SQLiteDatabase database) {
-        if (id == RoboModel.UNSAVED_MODEL_ID) {
-            return database.insertOrThrow(tableName, null, values.toContentValues());
+    private static void releaseStatement(StorageDatabase db, String tableName,
+                    ColumnValues values, String sql, StorageStatement statement) {
+        releaseStatement(db, tableName, sql, statement, values.isComplete());
+    }
+
+    /**
+     * Gives the statement back to the {@link StatementCache} if it can be reused, or closes it
+     */
+    private static void releaseStatement(StorageDatabase db, String tableName, String sql,
+                    StorageStatement statement, boolean reusable) {
+        if (statement == null) {
+            return;
+        } else if (reusable) {
+            StatementCache.release(db, tableName, sql, statement);
         } else {
-            database.update(tableName, values.toContentValues(), where(id), null);
+            statement.close();
+        }
+    }
+
+    /**
+     * Runs a query on the table. The cursor is returned as it is: the query is only timed when
+     * a {@link RoboMetrics} or a {@link SlowQueryLog} is installed.
+     */
+    Cursor query(StorageDatabase db, String tableName, String[] columns, String selection,
+                    String[] selectionArgs, String groupBy, String having, String orderBy,
+                    String limit) {
+        final RoboMetrics metrics = RoboMetrics.sInstance;
+        final SlowQueryLog slowQueryLog = SlowQueryLog.sInstance;
+        if (metrics == null && slowQueryLog == null) {
+            return db.query(tableName, columns, selection, selectionArgs, groupBy, having,
+                            orderBy, limit);
+        }
+
+        // The query actually runs when the cursor is filled, so count it in
+        final long start = System.nanoTime();
+        final Cursor cursor = db.query(tableName, columns, selection, selectionArgs, groupBy,
+                        having, orderBy, limit);
+        final int rows = cursor.getCount();
+        final long nanos = System.nanoTime() - start;
+
+        if (metrics != null) {
+            metrics.onQuery(tableName, nanos, rows);
+        }
+        if (slowQueryLog != null && slowQueryLog.isSlow(nanos)) {
+            final String sql = Sql.buildQuery(tableName, columns, selection, groupBy, having,
+                            orderBy, limit);
+            slowQueryLog.record(db, sql, selectionArgs, nanos, rows);
+        }
+        return cursor;
+    }
+
+    /**
+     * Inserts the records, or resolves the conflict with the existing records having the same
+     * value of keyColumn according to the strategy. Every record costs one statement and all of
+     * them run in one transaction.
+     * 
+     * @return the ids of the records, in the same order as the values
+     */
+    long[] upsert(String tableName, List<ColumnValues> values, String keyColumn,
+                    ConflictStrategy strategy, StorageDatabase db) {
+        createUniqueIndex(tableName, keyColumn, db);
+
+        final RoboMetrics metrics = RoboMetrics.sInstance;
+        final long start = metrics != null ? System.nanoTime() : 0;
+        final long[] ids = new long[values.size()];
+        final Map<String, StorageStatement> statements = new HashMap<String, StorageStatement>();
+        String[] columns = null;
+        StorageStatement statement = null;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ids.length; i++) {
+                final ColumnValues cv = values.get(i);
+                final int key = cv.getLayout().indexOf(keyColumn);
+
+                // Complete values share their columns: the statement only changes with the
+                // values of unloaded fields
+                if (cv.getColumns() != columns) {
+                    columns = cv.getColumns();
+                    final String sql = getUpsertSql(tableName, cv.getLayout().columns, columns,
+                                    keyColumn, strategy);
+                    statement = statements.get(sql);
+                    if (statement == null) {
+                        statement = db.compileStatement(sql);
+                        statements.put(sql, statement);
+                    }
+                }
+
+                // With IGNORE the key is not a parameter of its own
+                final int offset = strategy == ConflictStrategy.IGNORE ? 1 : 2;
+                statement.clearBindings();
+                if (offset == 2) {
+                    cv.bind(statement, 1, key);
+                }
+                cv.bindAll(statement, offset);
+
+                ids[i] = statement.executeInsert();
+                if (ids[i] == -1) {
+                    // Ignored: the record is the one already there
+                    ids[i] = findIdByKey(tableName, keyColumn, cv.get(key), db);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            for (final StorageStatement compiled : statements.values()) {
+                compiled.close();
+            }
+        }
+        if (metrics != null) {
+            metrics.onInsert(tableName, System.nanoTime() - start, ids.length);
+        }
+        ChangeNotifier.record(tableName, ids);
+        return ids;
+    }
+
+    /**
+     * @param allColumns
+     *            the columns of the table
+     * @param columns
+     *            the columns with a value, in the same order
+     */
+    private static String getUpsertSql(String tableName, String[] allColumns, String[] columns,
+                    String keyColumn, ConflictStrategy strategy) {
+        final StringBuilder sql = new StringBuilder();
+        if (strategy == ConflictStrategy.IGNORE) {
+            sql.append("INSERT OR IGNORE INTO ").append(tableName).append(" (");
+            for (int c = 0; c < columns.length; c++) {
+                sql.append(c > 0 ? ", " : "").append(columns[c]);
+            }
+            sql.append(") VALUES (");
+            for (int c = 0; c < columns.length; c++) {
+                sql.append(c > 0 ? ", ?" : "?").append(c + 1);
+            }
+            return sql.append(")").toString();
+        }
+
+        // Reusing the existing _id makes REPLACE an in-place update of the record. REPLACE
+        // deletes the old row, so the columns without a value (unloaded lazy fields) are
+        // written too, with their existing value
+        final String existing = " FROM " + tableName + " WHERE " + keyColumn + " = ?1)";
+        sql.append("INSERT OR REPLACE INTO ").append(tableName).append(" (").append(_ID);
+        for (final String column : allColumns) {
+            sql.append(", ").append(column);
+        }
+        sql.append(") VALUES ((SELECT ").append(_ID).append(existing);
+        int c = 0;
+        for (final String column : allColumns) {
+            if (c == columns.length || !columns[c].equals(column)) {
+                sql.append(", (SELECT ").append(column).append(existing);
+            } else if (strategy == ConflictStrategy.MERGE_NON_NULL) {
+                sql.append(", COALESCE(?").append(c + 2).append(", (SELECT ").append(column)
+                                .append(existing).append(")");
+                c++;
+            } else {
+                sql.append(", ?").append(c + 2);
+                c++;
+            }
+        }
+        return sql.append(")").toString();
+    }
+
+    private long findIdByKey(String tableName, String keyColumn, Object key, StorageDatabase db) {
+        final String sql = "SELECT " + _ID + " FROM " + tableName + " WHERE " + keyColumn
+                        + " = ?";
+        final StorageStatement statement = db.compileStatement(sql);
+        try {
+            Sql.bind(statement, 1, key);
+            return statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Saves the records in one transaction. The records with values for all the columns share
+     * one compiled insert and one compiled update, run once per record, so that every new
+     * record gets the id returned by its own insert; the others cost one statement each.
+     * 
+     * @param ids
+     *            the ids of the records, or {@link RoboModel#UNSAVED_MODEL_ID} for new ones
+     * @return the ids of the records, in the same order as the values
+     */
+    long[] saveAll(String tableName, List<ColumnValues> values, long[] ids, StorageDatabase db) {
+        final RoboMetrics metrics = RoboMetrics.sInstance;
+        final long start = metrics != null ? System.nanoTime() : 0;
+        final long[] savedIds = ids.clone();
+        String insertSql = null;
+        String updateSql = null;
+        StorageStatement insert = null;
+        StorageStatement update = null;
+        int inserted = 0;
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ids.length; i++) {
+                final ColumnValues cv = values.get(i);
+                final boolean isNew = ids[i] == RoboModel.UNSAVED_MODEL_ID;
+                if (!isNew && cv.size() == 0) {
+                    continue;
+                } else if (!cv.isComplete()) {
+                    savedIds[i] = execute(isNew ? cv.getInsertSql() : cv.getUpdateSql(), cv,
+                                    ids[i], db);
+                } else if (isNew) {
+                    if (insert == null) {
+                        insertSql = cv.getInsertSql();
+                        insert = StatementCache.acquire(db, tableName, insertSql);
+                    }
+                    cv.bindAll(insert, 1);
+                    savedIds[i] = insert.executeInsert();
+                } else {
+                    if (update == null) {
+                        updateSql = cv.getUpdateSql();
+                        update = StatementCache.acquire(db, tableName, updateSql);
+                    }
+                    update.bindLong(cv.bindAll(update, 1), ids[i]);
+                    update.executeUpdateDelete();
+                }
+                if (isNew) {
+                    inserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            try {
+                db.endTransaction();
+            } finally {
+                releaseStatement(db, tableName, insertSql, insert, successful);
+                releaseStatement(db, tableName, updateSql, update, successful);
+            }
+        }
+        if (metrics != null) {
+            final long nanos = System.nanoTime() - start;
+            if (inserted > 0) {
+                metrics.onInsert(tableName, nanos, inserted);
+            }
+            if (inserted < ids.length) {
+                metrics.onUpdate(tableName, nanos, ids.length - inserted);
+            }
+        }
+        ChangeNotifier.record(tableName, savedIds);
+        return savedIds;
+    }
+
+    /**
+     * Runs an insert, or an update of the record with the given id
+     * 
+     * @return the id of the record
+     */
+    private static long execute(String sql, ColumnValues values, long id, StorageDatabase db) {
+        final StorageStatement statement = db.compileStatement(sql);
+        try {
+            final int index = values.bindAll(statement, 1);
+            if (id == RoboModel.UNSAVED_MODEL_ID) {
+                return statement.executeInsert();
+            }
+            statement.bindLong(index, id);
+            statement.executeUpdateDelete();
             return id;
+        } finally {
+            statement.close();
+        }
+    }
+
+    void createUniqueIndex(String tableName, String column, StorageDatabase db) {
+        Set<String> columns = sUniqueIndexes.get(tableName);
+        if (columns == null) {
+            columns = Collections.synchronizedSet(new HashSet<String>());
+            final Set<String> existing = sUniqueIndexes.putIfAbsent(tableName, columns);
+            if (existing != null) {
+                columns = existing;
+            }
+        }
+
+        // Creating it twice is harmless
+        if (!columns.contains(column)) {
+            final String sql = String.format(
+                            "CREATE UNIQUE INDEX IF NOT EXISTS %s_%s_unique ON %s (%s);",
+                            tableName, column, tableName, column);
+            Ln.d("Creating index: %s", sql);
+            db.execSQL(sql);
+            columns.add(column);
         }
     }
 
-    void dropTable(String tableName, SQLiteDatabase db) {
+    void dropTable(String tableName, StorageDatabase db) {
+        StatementCache.invalidate(tableName);
         final StringBuilder sql = new StringBuilder("DROP TABLE IF EXISTS ").append(tableName).append(";");
         Ln.d("Dropping table: %s", sql.toString());
         db.execSQL(sql.toString());
+        db.execSQL("DROP TABLE IF EXISTS " + tableName + FULL_TEXT_SUFFIX + ";");
+        sUniqueIndexes.remove(tableName);
+        sFullTextTables.remove(tableName);
+        sCheckedTables.remove(tableName);
+        ChangeNotifier.recordWholeTable(tableName);
+    }
+
+    static List<String> getFullTextColumns(List<Field> fields) {
+        final List<String> columns = new ArrayList<String>();
+        for (final Field field : fields) {
+            if (field.isAnnotationPresent(FullText.class)) {
+                columns.add(field.getName());
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Makes sure the full text index of the table exists and indexes the given columns. The
+     * first time, or when the columns changed, it is built from the existing records; after
+     * that, triggers keep it in sync with every write. The table must exist.
+     */
+    void ensureFullText(String tableName, List<String> columns, boolean inMemory,
+                    StorageDatabase db) {
+        if (sFullTextTables.contains(tableName)) {
+            return;
+        }
+
+        // Checked again in the transaction: another thread may have built it meanwhile
+        db.beginTransaction();
+        try {
+            if (!sFullTextTables.contains(tableName)) {
+                buildFullText(tableName, columns, inMemory, db);
+                sFullTextTables.add(tableName);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void buildFullText(String tableName, List<String> columns, boolean inMemory,
+                    StorageDatabase db) {
+        final String schema = inMemory ? "temp." : "";
+        final String index = tableName + FULL_TEXT_SUFFIX;
+        boolean upToDate = false;
+        try {
+            final Cursor cursor = db.rawQuery("SELECT * FROM " + schema + index + " LIMIT 0",
+                            null);
+            upToDate = Arrays.asList(cursor.getColumnNames()).equals(columns);
+            cursor.close();
+        } catch (final SQLiteException e) {
+            // No index yet
+        }
+
+        if (!upToDate) {
+            Ln.d("Building full text index %s on %s", index, columns);
+            final StringBuilder names = new StringBuilder();
+            final StringBuilder values = new StringBuilder();
+            for (final String column : columns) {
+                names.append(names.length() > 0 ? ", " : "").append(column);
+                values.append(", new.").append(column);
+            }
+
+            // The content of the index is a copy: deleting the document first keeps it right
+            // even when the conflict resolution of an upsert deletes rows without firing
+            // triggers. Before SQLite 3.7.7 virtual tables ignore OR REPLACE. Trigger bodies
+            // can not name the schema, but temporary triggers look in it first.
+            final String insert = String.format("DELETE FROM %1$s WHERE docid = new.%3$s; "
+                            + "INSERT INTO %1$s (docid, %2$s) VALUES (new.%3$s%4$s);", index,
+                            names, _ID, values);
+            db.beginTransaction();
+            try {
+                db.execSQL("DROP TABLE IF EXISTS " + schema + index + ";");
+                db.execSQL(String.format("CREATE VIRTUAL TABLE %s%s USING fts3 (%s);", schema,
+                                index, names));
+                db.execSQL(String.format("INSERT INTO %s%s (docid, %s) SELECT %s, %s FROM %s;",
+                                schema, index, names, _ID, names, tableName));
+                // The triggers of a previous index copy its columns: they are replaced too
+                for (final String event : new String[] { "insert", "update", "delete" }) {
+                    db.execSQL(String.format("DROP TRIGGER IF EXISTS %s%s_%s;", schema, index,
+                                    event));
+                }
+                for (final String event : new String[] { "INSERT", "UPDATE" }) {
+                    db.execSQL(String.format("CREATE TRIGGER %s%s_%s AFTER %s ON %s "
+                                    + "BEGIN %s END;", schema, index,
+                                    event.toLowerCase(Locale.US), event, tableName, insert));
+                }
+                db.execSQL(String.format("CREATE TRIGGER %s%s_delete AFTER DELETE ON %s "
+                                + "BEGIN DELETE FROM %s WHERE docid = old.%s; END;", schema,
+                                index, tableName, index, _ID));
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * @param query
+     *            a full text query, like {@code "word"}, {@code "prefix*"} or
+     *            {@code "first OR second"}
+     * @param limit
+     *            the maximum number of ids, or a negative number for all of them
+     * @return the ids of the matching records, the ones with more matches first
+     */
+    long[] searchFullText(String tableName, String query, int limit, StorageDatabase db) {
+        final String index = tableName + FULL_TEXT_SUFFIX;
+        final String sql = String.format(Locale.US,
+                        "SELECT docid FROM %s WHERE %s MATCH ? ORDER BY length(offsets(%s)) "
+                                        + "DESC, docid LIMIT %d;", index, index, index, limit);
+        final RoboMetrics metrics = RoboMetrics.sInstance;
+        final long start = metrics != null ? System.nanoTime() : 0;
+        final Cursor cursor = db.rawQuery(sql, new String[] { query });
+        try {
+            final long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            if (metrics != null) {
+                metrics.onQuery(tableName, System.nanoTime() - start, ids.length);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
@@ -128,56 +628,110 @@ class DatabaseManager {
      *             if it cannot create the table
      */
     void createOrPopulateTable(String tableName, List<Field> fields,
-                    SQLiteDatabase db) {
-
-        Ln.d("Fixing table %s...", tableName);
+                    StorageDatabase db) {
+        createOrPopulateTable(tableName, fields, false, db);
+    }
 
-        // Check if table exists
-        try {
-            DatabaseUtils.queryNumEntries(db, tableName);
-        } catch (final SQLiteException ex) {
-            // If it doesn't, create it and return
-            createTable(tableName, fields, db);
+    /**
+     * Creates the table or migrates it to the fields of the model: new columns are added, while
+     * changed types and removed columns rebuild the table, converting the stored values. The
+     * migration runs in a transaction.
+     * 
+     * @param inMemory
+     *            whether the table is a temporary table kept in memory
+     * @see #createOrPopulateTable(String, List, StorageDatabase)
+     */
+    void createOrPopulateTable(String tableName, List<Field> fields, boolean inMemory,
+                    StorageDatabase db) {
+        final Map<String, String> stored = SchemaMigration.getStoredColumns(tableName, inMemory,
+                        db);
+        final List<String> statements = SchemaMigration.plan(tableName, fields, stored, inMemory);
+        sCheckedTables.add(tableName);
+        if (statements.isEmpty()) {
             return;
         }
 
-        // Otherwise, check if all fields exist
-        for (final Field field : fields) {
-            try {
-                // Get type of column
-                final Cursor typeCursor = db.rawQuery("select typeof (" + field.getName()
-                                + ") from "
-                                + tableName, null);
-                typeCursor.moveToFirst();
-                final String type = typeCursor.getString(0);
-                Ln.v("Type of %s is %s", field.getName(), type);
+        Ln.d("Fixing table %s...", tableName);
+        StatementCache.invalidate(tableName);
+        final RoboMetrics metrics = RoboMetrics.sInstance;
+        if (metrics != null) {
+            metrics.onSchemaRepair(tableName);
+        }
 
-                // TODO: correct type?
-            } catch (final SQLiteException e) {
-                // No such column
-                addColumn(tableName, field.getName(), getTypeForField(field), db);
-            } catch (final CursorIndexOutOfBoundsException e) {
-                // No such column
-                addColumn(tableName, field.getName(), getTypeForField(field), db);
+        db.beginTransaction();
+        try {
+            final SchemaMigration.LegacyJson legacy = SchemaMigration.LegacyJson.read(tableName,
+                            fields, stored, inMemory, db);
+            for (final String sql : statements) {
+                Ln.d("Migrating table: %s", sql);
+                db.execSQL(sql);
             }
+            if (legacy != null) {
+                legacy.write(db);
+            }
+            if (!inMemory) {
+                SchemaMigration.recordVersion(tableName, fields, db);
+            }
+            db.setTransactionSuccessful();
+        } catch (final SQLException e) {
+            sCheckedTables.remove(tableName);
+            throw e;
+        } finally {
+            db.endTransaction();
         }
+
+        // A rebuilt table lost its indexes, and its values may have been converted
+        sUniqueIndexes.remove(tableName);
+        sFullTextTables.remove(tableName);
+        QueryCache.invalidate(tableName);
+        ReadAhead.invalidate(tableName);
     }
 
     /**
-     * @param tableName
-     * @param values
-     * @param db
-     * @return
+     * @return the statement creating the table with a column for every field
      */
-    private void createTable(String tableName, List<Field> fields, SQLiteDatabase db) {
-        final StringBuilder sql = new StringBuilder("CREATE TABLE ").append(tableName).append(" (");
+    static String getCreateTableSql(String tableName, List<Field> fields, boolean inMemory) {
+        final StringBuilder sql = new StringBuilder("CREATE ");
+        if (inMemory) {
+            sql.append("TEMP ");
+        }
+        sql.append("TABLE ").append(tableName).append(" (");
 
         for (final Field field : fields) {
             sql.append(field.getName()).append(" ").append(getTypeForField(field)).append(", ");
         }
         sql.append(_ID).append(" integer primary key autoincrement);");
-        Ln.d("Creating table: %s", sql.toString());
-        db.execSQL(sql.toString());
+        return sql.toString();
+    }
+
+    /**
+     * Opens the database, migrating the table of the model the first time it is used on the
+     * connection
+     */
+    StorageDatabase openTable(RoboModel model) {
+        final StorageDatabase db = openOrCreateDatabase(model.getDatabaseName());
+        final String tableName = model.getTableName();
+        if (!sCheckedTables.contains(tableName)) {
+            // Checked again in the transaction: another thread may have migrated it meanwhile
+            db.beginTransaction();
+            try {
+                if (!sCheckedTables.contains(tableName)) {
+                    createOrPopulateTable(tableName, model.getSavedFields(), model.isInMemory(),
+                                    db);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        return db;
+    }
+
+    /**
+     * @return the version of the schema of the table, incremented by every migration
+     */
+    int getSchemaVersion(String databaseName, String tableName) {
+        return SchemaMigration.getVersion(tableName, openOrCreateDatabase(databaseName));
     }
 
     /**
@@ -185,27 +739,268 @@ class DatabaseManager {
      * @param tableName
      */
     public void deleteAllRecords(String databaseName, String tableName) {
-        final SQLiteDatabase db = openOrCreateDatabase(databaseName);
-        db.delete(tableName, null, null);
+        final StorageDatabase db = openOrCreateDatabase(databaseName);
+        final RoboMetrics metrics = RoboMetrics.sInstance;
+        final long start = metrics != null ? System.nanoTime() : 0;
+        final int count = db.delete(tableName, "1", null);
+        if (metrics != null) {
+            metrics.onDelete(tableName, System.nanoTime() - start, count);
+        }
+        if (count > 0) {
+            ChangeNotifier.recordWholeTable(tableName);
+        }
     }
 
     void deleteRecord(String databaseName, String tableName, long id) {
-        final SQLiteDatabase db = openOrCreateDatabase(databaseName);
-        db.delete(tableName, where(id), null);
+        final StorageDatabase db = openOrCreateDatabase(databaseName);
+        final RoboMetrics metrics = RoboMetrics.sInstance;
+        final long start = metrics != null ? System.nanoTime() : 0;
+        final int count = db.delete(tableName, where(id), null);
+        if (metrics != null) {
+            metrics.onDelete(tableName, System.nanoTime() - start, count);
+        }
+        if (count > 0) {
+            ChangeNotifier.record(tableName, id);
+        }
+    }
+
+    /**
+     * Deletes all the records matching the selection with a single statement.
+     * 
+     * @return the number of deleted records
+     */
+    int deleteRecords(String databaseName, String tableName, String selection,
+                    String[] selectionArgs) {
+        final StorageDatabase db = openOrCreateDatabase(databaseName);
+
+        // A null where clause would not report the number of deleted rows
+        final String where = selection != null ? selection : "1";
+        final RoboMetrics metrics = RoboMetrics.sInstance;
+        final long start = metrics != null ? System.nanoTime() : 0;
+        final int count;
+        db.beginTransaction();
+        try {
+            count = db.delete(tableName, where, selectionArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (metrics != null) {
+            metrics.onDelete(tableName, System.nanoTime() - start, count);
+        }
+        if (count > 0) {
+            ChangeNotifier.recordWholeTable(tableName);
+        }
+        return count;
+    }
+
+    /**
+     * Deletes the records with the given ids, BULK_CHUNK_SIZE at a time, in one transaction.
+     * 
+     * @return the number of deleted records
+     */
+    int deleteRecords(String databaseName, String tableName, long[] ids) {
+        final StorageDatabase db = openOrCreateDatabase(databaseName);
+        final RoboMetrics metrics = RoboMetrics.sInstance;
+        final long start = metrics != null ? System.nanoTime() : 0;
+        int count = 0;
+        db.beginTransaction();
+        try {
+            for (int from = 0; from < ids.length; from += BULK_CHUNK_SIZE) {
+                final int to = Math.min(from + BULK_CHUNK_SIZE, ids.length);
+                count += db.delete(tableName, where(ids, from, to), null);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (metrics != null) {
+            metrics.onDelete(tableName, System.nanoTime() - start, count);
+        }
+        if (count > 0) {
+            ChangeNotifier.record(tableName, ids);
+        }
+        return count;
+    }
+
+    /**
+     * Updates all the records matching the selection with a single statement.
+     * 
+     * @return the number of updated records
+     */
+    int updateRecords(String databaseName, String tableName, ColumnValues values,
+                    String selection, String[] selectionArgs) {
+        final StorageDatabase db = openOrCreateDatabase(databaseName);
+        final RoboMetrics metrics = RoboMetrics.sInstance;
+        final long start = metrics != null ? System.nanoTime() : 0;
+        final int count;
+        final StorageStatement statement = db.compileStatement(Sql.buildUpdate(tableName,
+                        values.getColumns(), selection));
+        db.beginTransaction();
+        try {
+            int index = values.bindAll(statement, 1);
+            if (selectionArgs != null) {
+                for (final String arg : selectionArgs) {
+                    statement.bindString(index++, arg);
+                }
+            }
+            count = statement.executeUpdateDelete();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+        if (metrics != null) {
+            metrics.onUpdate(tableName, System.nanoTime() - start, count);
+        }
+        if (count > 0) {
+            ChangeNotifier.recordWholeTable(tableName);
+        }
+        return count;
     }
 
-    SQLiteDatabase openOrCreateDatabase(String databaseName) {
-        if (sDatabase == null) {
-            sDatabase = mContext.getApplicationContext().openOrCreateDatabase(databaseName,
-                            Context.MODE_PRIVATE, null);
+    /**
+     * Runs the work in a transaction, committed if it returns normally. The changes it makes
+     * are notified together when the transaction is committed, and not at all if it is rolled
+     * back.
+     */
+    void runInTransaction(String databaseName, Runnable work) {
+        final StorageDatabase db = openOrCreateDatabase(databaseName);
+        boolean successful = false;
+        ChangeNotifier.beginBatch();
+        try {
+            db.beginTransaction();
+            try {
+                work.run();
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            successful = true;
+        } finally {
+            ChangeNotifier.endBatch(successful);
         }
-        return sDatabase;
+    }
+
+    /**
+     * Sets the engine opening the database, closing the database currently open.
+     */
+    static void setStorageEngine(StorageEngine engine) {
+        if (engine == null) {
+            throw new IllegalArgumentException("The storage engine can not be null");
+        }
+        closeSharedDatabase();
+        sStorageEngine = engine;
+    }
+
+    /**
+     * Migrates the tables of the models in one transaction on a background thread. Until it
+     * finishes, every other thread opening the database waits for it.
+     */
+    void initialize(final List<RoboModel> models) {
+        final CountDownLatch initialization = new CountDownLatch(1);
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    migrate(models);
+                } finally {
+                    sInitialization = null;
+                    sInitializationThread = null;
+                    initialization.countDown();
+                }
+            }
+        }, "RoboModel-initialize");
+        thread.setDaemon(true);
+
+        awaitInitialization();
+        sInitialization = initialization;
+        sInitializationThread = thread;
+        thread.start();
+    }
+
+    private void migrate(List<RoboModel> models) {
+        final StorageDatabase db = openOrCreateDatabase(getDatabaseName());
+        for (final RoboModel model : models) {
+            model.getLoadedColumns();
+        }
+
+        db.beginTransaction();
+        try {
+            for (final RoboModel model : models) {
+                openTable(model);
+            }
+            db.setTransactionSuccessful();
+        } catch (final SQLException e) {
+            // Rolled back: the tables are repaired on first use
+            Ln.w(e, "Could not initialize the tables");
+            for (final RoboModel model : models) {
+                sCheckedTables.remove(model.getTableName());
+            }
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Waits for the initialization of the models, unless called by it
+     */
+    private static void awaitInitialization() {
+        final CountDownLatch initialization = sInitialization;
+        if (initialization == null || Thread.currentThread() == sInitializationThread) {
+            return;
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                initialization.await();
+                break;
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    StorageDatabase openOrCreateDatabase(String databaseName) {
+        awaitInitialization();
+        StorageDatabase db = sDatabase;
+        if (db == null) {
+            synchronized (sDatabaseLock) {
+                db = sDatabase;
+                if (db == null) {
+                    db = sStorageEngine.open(mContext, databaseName);
+                    // For the tables of @InMemory models. Changing it drops the temporary
+                    // tables and is not allowed in a transaction: it is set once, on opening.
+                    db.execSQL("PRAGMA temp_store = MEMORY;");
+                    StatementCache.open(db);
+                    sDatabase = db;
+                }
+            }
+        }
+        return db;
     }
 
     void closeDatabase() {
-        if (sDatabase != null) {
-            sDatabase.close();
-            sDatabase = null;
+        closeSharedDatabase();
+    }
+
+    private static void closeSharedDatabase() {
+        awaitInitialization();
+        synchronized (sDatabaseLock) {
+            if (sDatabase != null) {
+                StatementCache.clear();
+                sDatabase.close();
+                sDatabase = null;
+            }
         }
+        sUniqueIndexes.clear();
+        sFullTextTables.clear();
+        sCheckedTables.clear();
+        QueryCache.clear();
+        ReadAhead.clear();
     }
 }
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import com.nonninz.robomodel.util.Ln;
+
+/**
+ * The result of a query kept up to date: the query runs again after every change of the table
+ * of the model, or of the tables of the relations it includes, and the observer receives the
+ * new result with its {@link ResultDiff} from the previous one.
+ * 
+ * Queries and observers run on the background thread delivering the {@link ChangeEvent}s,
+ * starting with the first result. Call {@link #close()} to stop observing.
+ * 
+ * @param <T>
+ */
+public final class LiveQuery<T extends RoboModel> {
+
+    public interface Observer<T extends RoboModel> {
+        /**
+         * @param result
+         *            the current result, which must not be modified
+         * @param diff
+         *            the changes from the previous result
+         */
+        void onChanged(List<T> result, ResultDiff diff);
+    }
+
+    private final RoboManager<T> mManager;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final String mOrderBy;
+    private final Observer<T> mObserver;
+    private final Set<Class<? extends RoboModel>> mTables;
+    private final List<Field> mFields;
+    private final List<Field> mRelations;
+    private volatile List<T> mResult = Collections.emptyList();
+    private volatile boolean mClosed;
+    private boolean mDelivered;
+
+    private final ChangeListener mListener = new ChangeListener() {
+        @Override
+        public void onChange(ChangeEvent event) {
+            refresh();
+        }
+    };
+
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
+    LiveQuery(RoboManager<T> manager, String selection, String[] selectionArgs, String orderBy,
+                    Observer<T> observer, Set<Class<? extends RoboModel>> tables,
+                    List<Field> fields, List<Field> relations) {
+        mManager = manager;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mOrderBy = orderBy;
+        mObserver = observer;
+        mTables = tables;
+        mFields = fields;
+        mRelations = relations;
+    }
+
+    void start() {
+        for (final Class<? extends RoboModel> table : mTables) {
+            ChangeNotifier.addListener(table.getSimpleName(), mListener, null);
+        }
+        ChangeNotifier.execute(mRefresh);
+    }
+
+    /**
+     * @return the last result delivered to the observer
+     */
+    public List<T> getResult() {
+        return mResult;
+    }
+
+    public void close() {
+        mClosed = true;
+        for (final Class<? extends RoboModel> table : mTables) {
+            ChangeNotifier.removeListener(table.getSimpleName(), mListener);
+        }
+    }
+
+    private void refresh() {
+        if (mClosed) {
+            return;
+        }
+
+        final List<T> result;
+        try {
+            result = Collections.unmodifiableList(mManager.load(mSelection, mSelectionArgs,
+                            mOrderBy));
+        } catch (final RuntimeException e) {
+            Ln.w(e, "Could not refresh the live query on %s", mTables);
+            return;
+        }
+
+        // The first result is always delivered, even if empty
+        final boolean first = !mDelivered;
+        final ResultDiff diff = first ? ResultDiff.insertAll(result.size()) : ResultDiff
+                        .compute(mResult, result, mFields, mRelations);
+        mResult = result;
+        mDelivered = true;
+        if (first || !diff.isEmpty()) {
+            mObserver.onChanged(result, diff);
+        }
+    }
+}
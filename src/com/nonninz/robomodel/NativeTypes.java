@@ -0,0 +1,268 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.database.Cursor;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.nonninz.robomodel.annotations.Scale;
+import com.nonninz.robomodel.util.PackedArrays;
+
+/**
+ * The types stored in a column of their own instead of as JSON, besides primitives, Strings and
+ * enums:
+ * - boxed primitives, as their primitives or NULL
+ * - Date, as INTEGER milliseconds since the epoch
+ * - UUID, as a 16 bytes BLOB
+ * - BigDecimal, as TEXT, or as a scaled INTEGER if it is annotated with {@link Scale}
+ * - int[], long[], double[] and List&lt;Long&gt;, as BLOBs packed by {@link PackedArrays}
+ */
+final class NativeTypes {
+    private static final int UUID_SIZE = 16;
+    /** Whether every List field holds Longs, as reading generic types is slow */
+    private static final Map<Field, Boolean> sLongLists = new ConcurrentHashMap<Field, Boolean>();
+
+    private NativeTypes() {
+    }
+
+    static boolean isNative(Field field) {
+        final Class<?> type = field.getType();
+        return type == Boolean.class || type == Byte.class || type == Short.class
+                        || type == Integer.class || type == Long.class || type == Float.class
+                        || type == Double.class || type == Date.class || type == UUID.class
+                        || type == BigDecimal.class || type == int[].class
+                        || type == long[].class || type == double[].class || isLongList(field);
+    }
+
+    private static boolean isLongList(Field field) {
+        if (field.getType() != List.class) {
+            return false;
+        }
+        Boolean longList = sLongLists.get(field);
+        if (longList == null) {
+            final Type type = field.getGenericType();
+            longList = type instanceof ParameterizedType
+                            && ((ParameterizedType) type).getActualTypeArguments()[0] == Long.class;
+            sLongLists.put(field, longList);
+        }
+        return longList;
+    }
+
+    /**
+     * @return whether the column is packed into a BLOB
+     */
+    private static boolean isPacked(Class<?> type) {
+        return type == int[].class || type == long[].class || type == double[].class
+                        || type == List.class;
+    }
+
+    /**
+     * @return the type of the column of a native field
+     */
+    static String getType(Field field) {
+        final Class<?> type = field.getType();
+        if (type == Boolean.class) {
+            return "BOOLEAN";
+        } else if (type == Float.class || type == Double.class) {
+            return "REAL";
+        } else if (type == UUID.class || isPacked(type)) {
+            return "BLOB";
+        } else if (type == BigDecimal.class) {
+            return field.isAnnotationPresent(Scale.class) ? "INTEGER" : "TEXT";
+        } else {
+            return "INTEGER";
+        }
+    }
+
+    /**
+     * Puts the value of a native field
+     */
+    static void put(Field field, Object value, ColumnValues values, int column) {
+        if (value == null) {
+            values.putNull(column);
+        } else if (value instanceof Boolean) {
+            values.putLong(column, (Boolean) value ? 1 : 0);
+        } else if (value instanceof Float || value instanceof Double) {
+            values.putDouble(column, ((Number) value).doubleValue());
+        } else if (value instanceof Date) {
+            values.putLong(column, ((Date) value).getTime());
+        } else if (value instanceof UUID) {
+            final UUID uuid = (UUID) value;
+            values.putBlob(column, ByteBuffer.allocate(UUID_SIZE)
+                            .putLong(uuid.getMostSignificantBits())
+                            .putLong(uuid.getLeastSignificantBits()).array());
+        } else if (value instanceof BigDecimal) {
+            final Scale scale = field.getAnnotation(Scale.class);
+            if (scale == null) {
+                values.putString(column, ((BigDecimal) value).toString());
+            } else {
+                values.putLong(column, toScaled((BigDecimal) value, scale.value(), field));
+            }
+        } else if (value instanceof int[]) {
+            values.putBlob(column, PackedArrays.pack((int[]) value));
+        } else if (value instanceof long[]) {
+            values.putBlob(column, PackedArrays.pack((long[]) value));
+        } else if (value instanceof double[]) {
+            values.putBlob(column, PackedArrays.pack((double[]) value));
+        } else if (value instanceof Collection) {
+            values.putBlob(column, PackedArrays.pack(toLongs((Collection<?>) value, field)));
+        } else {
+            values.putLong(column, ((Number) value).longValue());
+        }
+    }
+
+    /**
+     * @return the value of a native field, null if the column is NULL
+     */
+    static Object get(Field field, Cursor query, int columnIndex) {
+        if (query.isNull(columnIndex)) {
+            return null;
+        }
+
+        final Class<?> type = field.getType();
+        if (type == Boolean.class) {
+            return query.getInt(columnIndex) == 1;
+        } else if (type == Byte.class) {
+            return (byte) query.getShort(columnIndex);
+        } else if (type == Short.class) {
+            return query.getShort(columnIndex);
+        } else if (type == Integer.class) {
+            return query.getInt(columnIndex);
+        } else if (type == Long.class) {
+            return query.getLong(columnIndex);
+        } else if (type == Float.class) {
+            return query.getFloat(columnIndex);
+        } else if (type == Double.class) {
+            return query.getDouble(columnIndex);
+        } else if (type == Date.class) {
+            return new Date(query.getLong(columnIndex));
+        } else if (type == UUID.class) {
+            final ByteBuffer buffer = ByteBuffer.wrap(query.getBlob(columnIndex));
+            return new UUID(buffer.getLong(), buffer.getLong());
+        } else if (type == int[].class) {
+            return PackedArrays.unpackInts(query.getBlob(columnIndex));
+        } else if (type == long[].class) {
+            return PackedArrays.unpackLongs(query.getBlob(columnIndex));
+        } else if (type == double[].class) {
+            return PackedArrays.unpackDoubles(query.getBlob(columnIndex));
+        } else if (type == List.class) {
+            final long[] longs = PackedArrays.unpackLongs(query.getBlob(columnIndex));
+            final List<Long> list = new ArrayList<Long>(longs.length);
+            for (final long value : longs) {
+                list.add(value);
+            }
+            return list;
+        } else {
+            final Scale scale = field.getAnnotation(Scale.class);
+            if (scale != null) {
+                return BigDecimal.valueOf(query.getLong(columnIndex), scale.value());
+            }
+            // Stored as JSON before the TEXT column was native, when null was "null"
+            final String text = query.getString(columnIndex);
+            return "null".equals(text) ? null : new BigDecimal(text);
+        }
+    }
+
+    /**
+     * Writes the value of a native field as Jackson writes it: dates as milliseconds, UUIDs as
+     * strings
+     */
+    static void write(JsonGenerator generator, Field field, Cursor query, int columnIndex)
+                    throws IOException {
+        final Object value = get(field, query, columnIndex);
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Float) {
+            // Widened to a double it would be written with the digits of its binary value
+            generator.writeNumber((Float) value);
+        } else if (value instanceof Double) {
+            generator.writeNumber((Double) value);
+        } else if (value instanceof Date) {
+            generator.writeNumber(((Date) value).getTime());
+        } else if (value instanceof UUID) {
+            generator.writeString(value.toString());
+        } else if (value instanceof BigDecimal) {
+            generator.writeNumber((BigDecimal) value);
+        } else if (value instanceof int[]) {
+            generator.writeStartArray();
+            for (final int item : (int[]) value) {
+                generator.writeNumber(item);
+            }
+            generator.writeEndArray();
+        } else if (value instanceof long[]) {
+            generator.writeStartArray();
+            for (final long item : (long[]) value) {
+                generator.writeNumber(item);
+            }
+            generator.writeEndArray();
+        } else if (value instanceof double[]) {
+            generator.writeStartArray();
+            for (final double item : (double[]) value) {
+                generator.writeNumber(item);
+            }
+            generator.writeEndArray();
+        } else if (value instanceof List) {
+            generator.writeStartArray();
+            for (final Object item : (List<?>) value) {
+                generator.writeNumber((Long) item);
+            }
+            generator.writeEndArray();
+        } else {
+            generator.writeNumber(((Number) value).longValue());
+        }
+    }
+
+    private static long[] toLongs(Collection<?> values, Field field) {
+        final long[] longs = new long[values.size()];
+        int i = 0;
+        for (final Object value : values) {
+            if (value == null) {
+                final String msg = String.format("Field %s holds a null element", field.getName());
+                throw new IllegalArgumentException(msg);
+            }
+            longs[i++] = ((Number) value).longValue();
+        }
+        return longs;
+    }
+
+    private static long toScaled(BigDecimal value, int scale, Field field) {
+        final BigDecimal scaled = value.setScale(scale, RoundingMode.HALF_EVEN).movePointRight(
+                        scale);
+        if (scaled.unscaledValue().bitLength() > 63) {
+            final String msg = String.format("Value %s of field %s does not fit in a column",
+                            value, field.getName());
+            throw new IllegalArgumentException(msg);
+        }
+        return scaled.longValue();
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelCodec:
+ * 1. Runs the JSON decoding and encoding of bulk operations on a bounded pool of threads, the
+ * calling thread included
+ * 2. Splits the models in contiguous chunks, so the results keep their order
+ * 
+ */
+final class ParallelCodec {
+    /** Models per task */
+    static final int CHUNK_SIZE = 64;
+
+    interface Chunk {
+        /**
+         * Processes the models from index from, inclusive, to index to, exclusive
+         */
+        void run(int from, int to);
+    }
+
+    private static volatile ExecutorService sExecutor;
+    private static volatile int sThreads = 1;
+
+    private ParallelCodec() {
+    }
+
+    /**
+     * @param threads
+     *            the threads sharing the work, the calling thread included. 1 keeps all the
+     *            work on the calling thread.
+     */
+    static synchronized void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed");
+        }
+        if (sExecutor != null) {
+            sExecutor.shutdown();
+            sExecutor = null;
+        }
+        if (threads > 1) {
+            sExecutor = Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "RoboModel-codec-"
+                                    + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        sThreads = threads;
+    }
+
+    /**
+     * @return whether there are threads to share the work with
+     */
+    static boolean isEnabled() {
+        return sExecutor != null;
+    }
+
+    /**
+     * @return whether that many models are worth splitting between threads
+     */
+    static boolean isParallel(int count) {
+        return sExecutor != null && count >= 2 * CHUNK_SIZE;
+    }
+
+    /**
+     * Runs the chunks of count models, returning when all of them are done. The first exception
+     * thrown by a chunk is rethrown.
+     */
+    static void run(final int count, final Chunk chunk) {
+        final ExecutorService executor = sExecutor;
+        final int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (executor == null || chunks < 2) {
+            chunk.run(0, count);
+            return;
+        }
+
+        // Every thread takes the next chunk until none is left
+        final AtomicInteger next = new AtomicInteger();
+        final Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = next.getAndIncrement(); i < chunks; i = next.getAndIncrement()) {
+                    chunk.run(i * CHUNK_SIZE, Math.min(count, (i + 1) * CHUNK_SIZE));
+                }
+            }
+        };
+
+        final int workers = Math.min(sThreads - 1, chunks - 1);
+        final List<Future<?>> futures = new ArrayList<Future<?>>(workers);
+        try {
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(worker));
+            }
+        } catch (final RejectedExecutionException e) {
+            // The pool was replaced meanwhile: the calling thread does the rest
+        }
+
+        RuntimeException failure = null;
+        try {
+            worker.run();
+        } catch (final RuntimeException e) {
+            failure = e;
+        }
+
+        boolean interrupted = false;
+        for (final Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                } catch (final ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e
+                                        .getCause() : new RuntimeException(e.getCause());
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.nonninz.robomodel.storage.Sql;
+
+/**
+ * The results of the queries for ids and counts, by SQL and arguments. It is disabled until
+ * {@link #setMaxSize(int)} gives it a size. The least recently used results are evicted to keep
+ * the estimated memory within the size, and the results of a table are dropped when the
+ * {@link ChangeNotifier} is told about a write to it. Only the table a query is run on is
+ * tracked: the result of a selection reading other tables is not invalidated by their writes.
+ */
+final class QueryCache {
+    static final String NAME = "query";
+    /** The estimated memory of an entry besides its key and value */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private static class Entry {
+        final String mTableName;
+        final Object mValue;
+        final int mSize;
+
+        Entry(String tableName, Object value, int size) {
+            mTableName = tableName;
+            mValue = value;
+            mSize = size;
+        }
+    }
+
+    private static final Object sLock = new Object();
+    private static final LinkedHashMap<String, Entry> sEntries = new LinkedHashMap<String, Entry>(
+                    16, 0.75f, true);
+    /** Incremented by every write, so that a result read meanwhile is not stored */
+    private static final Map<String, Long> sVersions = new HashMap<String, Long>();
+    private static volatile int sMaxSize;
+    private static int sSize;
+    private static long sHits;
+    private static long sMisses;
+
+    private QueryCache() {
+    }
+
+    /**
+     * @param bytes
+     *            the estimated memory the results can use, 0 to disable the cache
+     */
+    static void setMaxSize(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("The size can not be negative");
+        }
+        synchronized (sLock) {
+            sMaxSize = bytes;
+            trim();
+        }
+    }
+
+    static boolean isEnabled() {
+        return sMaxSize > 0;
+    }
+
+    static String getKey(String tableName, String[] columns, String selection,
+                    String[] selectionArgs, String groupBy, String having, String orderBy) {
+        final StringBuilder key = new StringBuilder(Sql.buildQuery(tableName, columns,
+                        selection, groupBy, having, orderBy, null));
+        if (selectionArgs != null) {
+            for (final String arg : selectionArgs) {
+                // Tells a null argument from the string "null"
+                key.append(arg == null ? "\u0000" : "\u0001").append(arg);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return the version to pass to {@link #put(String, String, Object, long)} with the result
+     *         of the query
+     */
+    static long getVersion(String tableName) {
+        synchronized (sLock) {
+            final Long version = sVersions.get(tableName);
+            return version != null ? version : 0;
+        }
+    }
+
+    /**
+     * @return the result stored for the key, or null
+     */
+    static Object get(String key) {
+        final Object value;
+        synchronized (sLock) {
+            final Entry entry = sEntries.get(key);
+            value = entry != null ? entry.mValue : null;
+            if (value != null) {
+                sHits++;
+            } else {
+                sMisses++;
+            }
+        }
+
+        final RoboMetrics metrics = RoboMetrics.sInstance;
+        if (metrics != null) {
+            metrics.onCacheLookup(NAME, value != null);
+        }
+        return value;
+    }
+
+    /**
+     * Stores the result of a query, unless the table was written since the version was taken
+     * 
+     * @param value
+     *            a long[] of ids or a Long
+     */
+    static void put(String tableName, String key, Object value, long version) {
+        final int size = ENTRY_OVERHEAD + key.length() * 2
+                        + (value instanceof long[] ? ((long[]) value).length * 8 : 8);
+        synchronized (sLock) {
+            if (size > sMaxSize || getVersion(tableName) != version) {
+                return;
+            }
+            final Entry previous = sEntries.put(key, new Entry(tableName, value, size));
+            if (previous != null) {
+                sSize -= previous.mSize;
+            }
+            sSize += size;
+            trim();
+        }
+    }
+
+    /**
+     * Drops the results of the table
+     */
+    static void invalidate(String tableName) {
+        synchronized (sLock) {
+            final Long version = sVersions.get(tableName);
+            sVersions.put(tableName, version != null ? version + 1 : 1);
+            if (sEntries.isEmpty()) {
+                return;
+            }
+            for (final Iterator<Entry> i = sEntries.values().iterator(); i.hasNext();) {
+                final Entry entry = i.next();
+                if (entry.mTableName.equals(tableName)) {
+                    sSize -= entry.mSize;
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops all the results, as when the database is closed
+     */
+    static void clear() {
+        synchronized (sLock) {
+            sEntries.clear();
+            sSize = 0;
+            // Neither can the queries still running store their results
+            for (final Map.Entry<String, Long> version : sVersions.entrySet()) {
+                version.setValue(version.getValue() + 1);
+            }
+        }
+    }
+
+    /**
+     * @return the ratio of the lookups finding a result since the last reset, or 0 if there
+     *         were none
+     */
+    static double getHitRatio() {
+        synchronized (sLock) {
+            final long lookups = sHits + sMisses;
+            return lookups == 0 ? 0 : (double) sHits / lookups;
+        }
+    }
+
+    static void resetStats() {
+        synchronized (sLock) {
+            sHits = 0;
+            sMisses = 0;
+        }
+    }
+
+    private static void trim() {
+        final Iterator<Entry> i = sEntries.values().iterator();
+        while (sSize > sMaxSize && i.hasNext()) {
+            sSize -= i.next().mSize;
+            i.remove();
+        }
+    }
+}
@@ -0,0 +1,414 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel;
+
+import static android.provider.BaseColumns._ID;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.SQLException;
+
+import com.nonninz.robomodel.exceptions.DatabaseNotUpToDateException;
+import com.nonninz.robomodel.storage.StorageDatabase;
+import com.nonninz.robomodel.util.Ln;
+
+/**
+ * ReadAhead:
+ * 1. Serves the models loaded by position from a window of rows of their table, copied from a
+ * single query, instead of a query with an offset for every position
+ * 2. Reads the window when a position is requested close to the previous one, in the
+ * direction of the access. A position far from the previous one is left to a query of its own.
+ * 3. Optionally reads the next window on a background thread before it is reached
+ * 
+ * The windows of a table are dropped by every write to it, and positions requested in a
+ * transaction are not served from them.
+ */
+final class ReadAhead {
+    static final int DEFAULT_ROWS = 64;
+
+    private static final Map<String, ReadAhead> sTables = new ConcurrentHashMap<String, ReadAhead>();
+    private static volatile int sRows = DEFAULT_ROWS;
+    private static volatile boolean sBackground;
+    private static ExecutorService sExecutor;
+
+    private final String mTableName;
+    private Window mWindow;
+    private int mStart;
+    /** The window read ahead of mWindow */
+    private Window mNext;
+    private int mNextStart;
+    private Future<Window> mPending;
+    private int mPendingStart;
+    private long mPendingVersion;
+    private int mLast = -1;
+    /**
+     * Incremented by every write without locking, as the writer can hold the database a load
+     * is waiting for. The windows are dropped by the next load.
+     */
+    private final AtomicLong mVersion = new AtomicLong();
+    private long mWindowVersion;
+
+    private ReadAhead(String tableName) {
+        mTableName = tableName;
+    }
+
+    /**
+     * @param rows
+     *            the rows of a window, 0 to always run a query per position
+     * @param background
+     *            whether the next window is read on a background thread
+     */
+    static void configure(int rows, boolean background) {
+        if (rows < 0) {
+            throw new IllegalArgumentException("The rows can not be negative");
+        }
+        sRows = rows;
+        sBackground = background;
+        clear();
+    }
+
+    /**
+     * Loads the model at the position from the window of its table, reading the window if the
+     * access is sequential.
+     * 
+     * @return false if the model was not loaded, and must be loaded with a query of its own
+     */
+    static boolean load(RoboModel model, int position, DatabaseManager manager,
+                    StorageDatabase db) {
+        final int rows = sRows;
+        if (rows <= 1 || db.inTransaction()) {
+            return false;
+        }
+
+        ReadAhead table = sTables.get(model.getTableName());
+        if (table == null) {
+            table = new ReadAhead(model.getTableName());
+            sTables.put(model.getTableName(), table);
+        }
+        return table.load(model, position, rows, manager, db);
+    }
+
+    /**
+     * Drops the windows of the table
+     */
+    static void invalidate(String tableName) {
+        final ReadAhead table = sTables.get(tableName);
+        if (table != null) {
+            table.mVersion.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops all the windows, as when the database is closed
+     */
+    static void clear() {
+        for (final ReadAhead table : sTables.values()) {
+            table.mVersion.incrementAndGet();
+        }
+    }
+
+    private void drop() {
+        mWindow = null;
+        mNext = null;
+        if (mPending != null) {
+            mPending.cancel(false);
+            mPending = null;
+        }
+        mLast = -1;
+    }
+
+    private synchronized boolean load(RoboModel model, int position, int rows,
+                    DatabaseManager manager, StorageDatabase db) {
+        final long version = mVersion.get();
+        if (version != mWindowVersion) {
+            drop();
+            mWindowVersion = version;
+        }
+        final int last = mLast;
+        mLast = position;
+
+        if (!contains(mWindow, mStart, position)) {
+            adoptPending(position);
+            if (contains(mNext, mNextStart, position)) {
+                mWindow = mNext;
+                mStart = mNextStart;
+                mNext = null;
+            } else if (last >= 0 && Math.abs(position - last) <= rows) {
+                // Nearby: read the rows in the direction of the access
+                final int start = position >= last ? position : Math.max(0, position - rows + 1);
+                try {
+                    mWindow = read(manager, db, model, start, rows);
+                    mStart = start;
+                } catch (final RuntimeException e) {
+                    // Left to the query of the position, which repairs the table
+                    Ln.d(e, "Reading ahead table %s", mTableName);
+                    mWindow = null;
+                    return false;
+                }
+            } else {
+                return false;
+            }
+            if (!contains(mWindow, mStart, position)) {
+                // After the last row
+                return false;
+            }
+        }
+
+        mWindow.moveToPosition(position - mStart);
+        try {
+            model.load(mWindow);
+        } catch (final DatabaseNotUpToDateException e) {
+            drop();
+            return false;
+        }
+        if (version != mVersion.get()) {
+            // Read while the table was written: served, but not kept
+            drop();
+            return true;
+        }
+
+        if (sBackground) {
+            prefetch(position, last, rows, manager, db, model);
+        }
+        return true;
+    }
+
+    private static boolean contains(Cursor window, int start, int position) {
+        return window != null && position >= start && position < start + window.getCount();
+    }
+
+    /**
+     * Waits for the window read in the background if it holds the position, or takes it if it
+     * is done
+     */
+    private void adoptPending(int position) {
+        if (mPending == null) {
+            return;
+        }
+        final boolean wanted = position >= mPendingStart && position < mPendingStart + sRows;
+        if (!wanted && !mPending.isDone()) {
+            return;
+        }
+
+        try {
+            final Window window = mPending.get();
+            if (mPendingVersion == mVersion.get()) {
+                mNext = window;
+                mNextStart = mPendingStart;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException e) {
+            Ln.d(e.getCause(), "Reading ahead table %s", mTableName);
+        } finally {
+            mPending = null;
+        }
+    }
+
+    /**
+     * Starts reading the next window in the direction of the access when the position gets
+     * close to the end of the current one
+     */
+    private void prefetch(int position, int last, final int rows, final DatabaseManager manager,
+                    final StorageDatabase db, final RoboModel model) {
+        if (mPending != null || mNext != null || last < 0) {
+            return;
+        }
+
+        final int start;
+        if (position > last && position >= mStart + rows * 3 / 4
+                        && mWindow.getCount() == rows) {
+            start = mStart + rows;
+        } else if (position < last && position < mStart + rows / 4 && mStart > 0) {
+            start = Math.max(0, mStart - rows);
+        } else {
+            return;
+        }
+
+        mPendingStart = start;
+        mPendingVersion = mWindowVersion;
+        mPending = getExecutor().submit(new Callable<Window>() {
+            @Override
+            public Window call() {
+                return read(manager, db, model, start, rows);
+            }
+        });
+    }
+
+    /**
+     * @return the rows from the start, ordered by id, copied out of the query
+     */
+    private Window read(DatabaseManager manager, StorageDatabase db, RoboModel model, int start,
+                    int rows) {
+        // Cursor.getType() is not available before API 11: every column is read as the type
+        // its field is stored as
+        final List<Field> fields = model.getLoadedFields();
+        final String[] columns = model.getLoadedColumns();
+        final String[] types = new String[columns.length];
+        for (int i = 0; i < fields.size(); i++) {
+            types[i] = DatabaseManager.getTypeForField(fields.get(i));
+        }
+        types[fields.size()] = "INTEGER";
+
+        final Cursor query = manager.query(db, mTableName, columns, null, null, null, null, _ID,
+                        start + "," + rows);
+        try {
+            final Window window = new Window(columns, query.getCount());
+            while (query.moveToNext()) {
+                final Object[] row = new Object[columns.length];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = copy(query, i, types[i]);
+                }
+                window.addRow(row);
+            }
+            return window;
+        } finally {
+            query.close();
+        }
+    }
+
+    private static Object copy(Cursor query, int column, String type) {
+        if (query.isNull(column)) {
+            return null;
+        } else if ("INTEGER".equals(type) || "BOOLEAN".equals(type)) {
+            return query.getLong(column);
+        } else if ("REAL".equals(type)) {
+            return query.getDouble(column);
+        } else if ("BLOB".equals(type)) {
+            return query.getBlob(column);
+        }
+        try {
+            return query.getString(column);
+        } catch (final SQLException e) {
+            // Compressed text
+            return query.getBlob(column);
+        }
+    }
+
+    /**
+     * The rows of a window. Unlike a MatrixCursor, it reads BLOBs on every version and refuses
+     * to read them as strings, like a cursor on the database.
+     */
+    static final class Window extends AbstractCursor {
+        private final String[] mColumns;
+        private final List<Object[]> mRows;
+
+        Window(String[] columns, int rows) {
+            mColumns = columns;
+            mRows = new ArrayList<Object[]>(rows);
+        }
+
+        void addRow(Object[] row) {
+            mRows.add(row);
+        }
+
+        private Object get(int column) {
+            return mRows.get(getPosition())[column];
+        }
+
+        @Override
+        public int getCount() {
+            return mRows.size();
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumns;
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            return (byte[]) get(column);
+        }
+
+        @Override
+        public String getString(int column) {
+            final Object value = get(column);
+            if (value instanceof byte[]) {
+                throw new SQLException("Unable to convert BLOB to string");
+            }
+            return value != null ? value.toString() : null;
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            final Object value = get(column);
+            return value instanceof Number ? ((Number) value).longValue() : (long) getDouble(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            final Object value = get(column);
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            } else if (value instanceof String) {
+                try {
+                    return Double.parseDouble((String) value);
+                } catch (final NumberFormatException e) {
+                    return 0;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return get(column) == null;
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "RoboModel-read-ahead");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel;
+
+import static android.provider.BaseColumns._ID;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.content.Context;
+
+import com.nonninz.robomodel.annotations.BelongsTo;
+import com.nonninz.robomodel.annotations.HasMany;
+import com.nonninz.robomodel.util.Ln;
+
+/**
+ * RelationLoader:
+ * 1. Loads the {@link BelongsTo} and {@link HasMany} relations of a list of models, with one
+ * batched query per relation
+ * 
+ */
+final class RelationLoader {
+
+    private RelationLoader() {
+    }
+
+    /**
+     * @return the field of the relation with the given name
+     * @throws IllegalArgumentException
+     *             if the model has no such relation
+     */
+    static Field getRelationField(Class<? extends RoboModel> klass, String name) {
+        final Field field;
+        try {
+            field = klass.getDeclaredField(name);
+        } catch (final NoSuchFieldException e) {
+            final String msg = String.format("Model %s has no field %s", klass.getSimpleName(),
+                            name);
+            throw new IllegalArgumentException(msg);
+        }
+
+        if (field.isAnnotationPresent(BelongsTo.class)) {
+            if (!RoboModel.class.isAssignableFrom(field.getType())) {
+                final String msg = String.format("Field %s of %s is not a RoboModel", name,
+                                klass.getSimpleName());
+                throw new IllegalArgumentException(msg);
+            }
+        } else if (field.isAnnotationPresent(HasMany.class)) {
+            getElementType(field);
+        } else {
+            final String msg = String.format("Field %s of %s is not a relation", name,
+                            klass.getSimpleName());
+            throw new IllegalArgumentException(msg);
+        }
+        return field;
+    }
+
+    /**
+     * @return the class of the models of the relation
+     */
+    static Class<? extends RoboModel> getRelatedClass(Field field) {
+        if (field.isAnnotationPresent(HasMany.class)) {
+            return getElementType(field);
+        }
+        return field.getType().asSubclass(RoboModel.class);
+    }
+
+    static <T extends RoboModel> void load(Context context, Class<T> klass, List<T> models,
+                    Set<String> relations) {
+        if (models.isEmpty()) {
+            return;
+        }
+
+        for (final String relation : relations) {
+            final Field field = getRelationField(klass, relation);
+            if (field.isAnnotationPresent(BelongsTo.class)) {
+                loadBelongsTo(context, field, models);
+            } else {
+                loadHasMany(context, field, models);
+            }
+        }
+    }
+
+    private static void loadBelongsTo(Context context, Field field,
+                    List<? extends RoboModel> models) {
+        final Set<Long> ids = new LinkedHashSet<Long>();
+        for (final RoboModel model : models) {
+            final RoboModel reference = (RoboModel) get(field, model);
+            if (reference != null && reference.isSaved()) {
+                ids.add(reference.getId());
+            }
+        }
+
+        final Class<? extends RoboModel> type = field.getType().asSubclass(RoboModel.class);
+        final Map<Long, RoboModel> related = new HashMap<Long, RoboModel>();
+        for (final RoboModel model : fetch(context, type, _ID, toArray(ids))) {
+            related.put(model.getId(), model);
+        }
+
+        for (final RoboModel model : models) {
+            final RoboModel reference = (RoboModel) get(field, model);
+            if (reference == null) {
+                continue;
+            }
+
+            final RoboModel value = related.get(reference.getId());
+            if (value != null) {
+                set(field, model, value);
+            } else {
+                Ln.w("Record with id %d of %s referenced by %s was not found", reference.getId(),
+                                type.getSimpleName(), field.getName());
+            }
+        }
+    }
+
+    private static void loadHasMany(Context context, Field field,
+                    List<? extends RoboModel> models) {
+        final Class<? extends RoboModel> type = getElementType(field);
+        final String foreignKey = field.getAnnotation(HasMany.class).value();
+        final Field backReference = getRelationField(type, foreignKey);
+
+        final Set<Long> parents = new LinkedHashSet<Long>();
+        final Map<Long, List<RoboModel>> children = new HashMap<Long, List<RoboModel>>();
+        for (final RoboModel model : models) {
+            if (model.isSaved()) {
+                parents.add(model.getId());
+                children.put(model.getId(), new ArrayList<RoboModel>());
+            }
+        }
+
+        // The back-reference stays a reference with only the id set: the parent would make a
+        // cycle, which toJson() can not write
+        for (final RoboModel child : fetch(context, type, foreignKey, toArray(parents))) {
+            final long parentId = ((RoboModel) get(backReference, child)).getId();
+            children.get(parentId).add(child);
+        }
+
+        for (final RoboModel model : models) {
+            set(field, model, children.get(model.getId()));
+        }
+    }
+
+    private static <M extends RoboModel> List<M> fetch(Context context, Class<M> klass,
+                    String column, long[] ids) {
+        final List<M> result = new ArrayList<M>(ids.length);
+        if (ids.length == 0) {
+            return result;
+        }
+
+        final RoboManager<M> manager = RoboManager.get(context, klass);
+        for (int from = 0; from < ids.length; from += DatabaseManager.BULK_CHUNK_SIZE) {
+            final int to = Math.min(from + DatabaseManager.BULK_CHUNK_SIZE, ids.length);
+            result.addAll(manager.fetch(DatabaseManager.where(column, ids, from, to), null, _ID));
+        }
+        return result;
+    }
+
+    private static Class<? extends RoboModel> getElementType(Field field) {
+        final Type type = field.getGenericType();
+        if (type instanceof ParameterizedType) {
+            final Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (field.getType().isAssignableFrom(ArrayList.class) && arguments.length == 1
+                            && arguments[0] instanceof Class
+                            && RoboModel.class.isAssignableFrom((Class<?>) arguments[0])) {
+                return ((Class<?>) arguments[0]).asSubclass(RoboModel.class);
+            }
+        }
+
+        final String msg = String.format("Field %s is not a List of RoboModel", field.getName());
+        throw new IllegalArgumentException(msg);
+    }
+
+    private static long[] toArray(Set<Long> ids) {
+        final long[] result = new long[ids.size()];
+        int i = 0;
+        for (final Long id : ids) {
+            result[i++] = id;
+        }
+        return result;
+    }
+
+    private static Object get(Field field, RoboModel model) {
+        final boolean wasAccessible = field.isAccessible();
+        field.setAccessible(true);
+        try {
+            return field.get(model);
+        } catch (final IllegalAccessException e) {
+            final String msg = String.format("Field %s is not accessible", field.getName());
+            throw new IllegalArgumentException(msg);
+        } finally {
+            field.setAccessible(wasAccessible);
+        }
+    }
+
+    private static void set(Field field, RoboModel model, Object value) {
+        final boolean wasAccessible = field.isAccessible();
+        field.setAccessible(true);
+        try {
+            field.set(model, value);
+        } catch (final IllegalAccessException e) {
+            final String msg = String.format("Field %s is not accessible", field.getName());
+            throw new IllegalArgumentException(msg);
+        } finally {
+            field.setAccessible(wasAccessible);
+        }
+    }
+}
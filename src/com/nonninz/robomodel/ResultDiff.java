@@ -0,0 +1,261 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The difference between two results of the same query, matching the models by id:
+ * <ul>
+ * <li>removed: positions in the previous result of the models that are gone
+ * <li>inserted: positions in the current result of the new models
+ * <li>moved: the fewest models that changed their relative order, from their previous
+ * position to their current one
+ * <li>changed: positions in the current result of the models whose values changed
+ * </ul>
+ */
+public final class ResultDiff {
+    private static final int[] NONE = new int[0];
+
+    private final int[] mRemoved;
+    private final int[] mInserted;
+    private final int[] mMovedFrom;
+    private final int[] mMovedTo;
+    private final int[] mChanged;
+
+    private ResultDiff(int[] removed, int[] inserted, int[] movedFrom, int[] movedTo,
+                    int[] changed) {
+        mRemoved = removed;
+        mInserted = inserted;
+        mMovedFrom = movedFrom;
+        mMovedTo = movedTo;
+        mChanged = changed;
+    }
+
+    public int[] getRemoved() {
+        return mRemoved;
+    }
+
+    public int[] getInserted() {
+        return mInserted;
+    }
+
+    /**
+     * @return the previous positions of the moved models, in the same order as
+     *         {@link #getMovedTo()}
+     */
+    public int[] getMovedFrom() {
+        return mMovedFrom;
+    }
+
+    public int[] getMovedTo() {
+        return mMovedTo;
+    }
+
+    public int[] getChanged() {
+        return mChanged;
+    }
+
+    public boolean isEmpty() {
+        return mRemoved.length == 0 && mInserted.length == 0 && mMovedFrom.length == 0
+                        && mChanged.length == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ResultDiff {removed: " + Arrays.toString(mRemoved) + ", inserted: "
+                        + Arrays.toString(mInserted) + ", movedFrom: "
+                        + Arrays.toString(mMovedFrom) + ", movedTo: "
+                        + Arrays.toString(mMovedTo) + ", changed: " + Arrays.toString(mChanged)
+                        + "}";
+    }
+
+    /**
+     * @return a diff inserting all the models of the result
+     */
+    static ResultDiff insertAll(int size) {
+        final int[] inserted = new int[size];
+        for (int i = 0; i < size; i++) {
+            inserted[i] = i;
+        }
+        return new ResultDiff(NONE, inserted, NONE, NONE, NONE);
+    }
+
+    /**
+     * @param fields
+     *            the fields compared to tell if a model changed
+     * @param relations
+     *            the included relations, whose models are compared by their values too
+     */
+    static ResultDiff compute(List<? extends RoboModel> previous,
+                    List<? extends RoboModel> current, List<Field> fields,
+                    List<Field> relations) {
+        final Map<Long, Integer> previousPositions = new HashMap<Long, Integer>();
+        for (int i = 0; i < previous.size(); i++) {
+            previousPositions.put(previous.get(i).getId(), i);
+        }
+
+        // Models in both results, in their current order
+        final List<Integer> inserted = new ArrayList<Integer>();
+        final List<Integer> changed = new ArrayList<Integer>();
+        final List<Integer> commonFrom = new ArrayList<Integer>();
+        final List<Integer> commonTo = new ArrayList<Integer>();
+        final Map<Long, Integer> currentPositions = new HashMap<Long, Integer>();
+        for (int i = 0; i < current.size(); i++) {
+            final RoboModel model = current.get(i);
+            currentPositions.put(model.getId(), i);
+            final Integer from = previousPositions.get(model.getId());
+            if (from == null) {
+                inserted.add(i);
+            } else {
+                commonFrom.add(from);
+                commonTo.add(i);
+                if (!sameValues(previous.get(from), model, fields)
+                                || !sameRelations(previous.get(from), model, relations)) {
+                    changed.add(i);
+                }
+            }
+        }
+
+        final List<Integer> removed = new ArrayList<Integer>();
+        for (int i = 0; i < previous.size(); i++) {
+            if (!currentPositions.containsKey(previous.get(i).getId())) {
+                removed.add(i);
+            }
+        }
+
+        // The models keeping their relative order are the longest increasing subsequence of
+        // previous positions: all the others moved
+        final boolean[] kept = longestIncreasingSubsequence(commonFrom);
+        final List<Integer> movedFrom = new ArrayList<Integer>();
+        final List<Integer> movedTo = new ArrayList<Integer>();
+        for (int i = 0; i < kept.length; i++) {
+            if (!kept[i]) {
+                movedFrom.add(commonFrom.get(i));
+                movedTo.add(commonTo.get(i));
+            }
+        }
+
+        return new ResultDiff(toArray(removed), toArray(inserted), toArray(movedFrom),
+                        toArray(movedTo), toArray(changed));
+    }
+
+    private static boolean[] longestIncreasingSubsequence(List<Integer> values) {
+        final int n = values.size();
+        final int[] tails = new int[n];
+        final int[] previous = new int[n];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            // Binary search for the first tail not smaller than the value
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (values.get(tails[middle]) < values.get(i)) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+
+        final boolean[] result = new boolean[n];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            result[i] = true;
+        }
+        return result;
+    }
+
+    private static boolean sameValues(RoboModel a, RoboModel b, List<Field> fields) {
+        for (final Field field : fields) {
+            final Object x = get(field, a);
+            final Object y = get(field, b);
+            if (x instanceof RoboModel && y instanceof RoboModel) {
+                // Related models are compared by id only
+                if (((RoboModel) x).getId() != ((RoboModel) y).getId()) {
+                    return false;
+                }
+            } else if (!Arrays.deepEquals(new Object[] { x }, new Object[] { y })) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameRelations(RoboModel a, RoboModel b, List<Field> relations) {
+        for (final Field field : relations) {
+            final Object x = get(field, a);
+            final Object y = get(field, b);
+            if (x instanceof List && y instanceof List) {
+                final List<?> xs = (List<?>) x;
+                final List<?> ys = (List<?>) y;
+                if (xs.size() != ys.size()) {
+                    return false;
+                }
+                for (int i = 0; i < xs.size(); i++) {
+                    if (!sameModel((RoboModel) xs.get(i), (RoboModel) ys.get(i))) {
+                        return false;
+                    }
+                }
+            } else if (x instanceof RoboModel && y instanceof RoboModel) {
+                if (!sameModel((RoboModel) x, (RoboModel) y)) {
+                    return false;
+                }
+            } else if (x != y) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameModel(RoboModel x, RoboModel y) {
+        return x.getId() == y.getId() && sameValues(x, y, x.getSavedFields());
+    }
+
+    private static Object get(Field field, RoboModel model) {
+        final boolean wasAccessible = field.isAccessible();
+        field.setAccessible(true);
+        try {
+            return field.get(model);
+        } catch (final IllegalAccessException e) {
+            final String msg = String.format("Field %s is not accessible", field.getName());
+            throw new IllegalArgumentException(msg);
+        } finally {
+            field.setAccessible(wasAccessible);
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        if (list.isEmpty()) {
+            return NONE;
+        }
+        final int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+}
@@ -15,22 +15,48 @@
  */
 package com.nonninz.robomodel;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteException;
 import android.provider.BaseColumns;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nonninz.robomodel.LiveQuery.Observer;
+import com.nonninz.robomodel.annotations.BelongsTo;
+import com.nonninz.robomodel.annotations.EnumOrdinal;
+import com.nonninz.robomodel.annotations.FullText;
+import com.nonninz.robomodel.annotations.HasMany;
+import com.nonninz.robomodel.annotations.InMemory;
+import com.nonninz.robomodel.annotations.Lazy;
+import com.nonninz.robomodel.exceptions.DatabaseNotUpToDateException;
 import com.nonninz.robomodel.exceptions.InstanceNotFoundException;
 import com.nonninz.robomodel.exceptions.JsonException;
+import com.nonninz.robomodel.storage.JdbcStorageEngine;
+import com.nonninz.robomodel.storage.StorageDatabase;
+import com.nonninz.robomodel.storage.StorageEngine;
+import com.nonninz.robomodel.util.EnumCache;
 import com.nonninz.robomodel.util.Ln;
 
 /**
@@ -43,16 +69,40 @@ import com.nonninz.robomodel.util.Ln;
  *         - last()
  *         - find(id)
  *         - deleteAll()
+ *         - deleteWhere(selection), delete(models), updateWhere(values, selection)
+ *         - saveAll(models), upsert(model, keyField), upsertAll(models, keyField)
+ *         - exportJson(out)
+ *         - loadLazy(models, fields)
+ *         - include(relations), to load {@link BelongsTo} and {@link HasMany} relations
+ *         - runInTransaction(work)
+ *         - addChangeListener(listener), to be told when the table changes
+ *         - observe(selection, observer), for results kept up to date
+ *         - search(query), on the {@link FullText} fields
+ *         - forEach(selection, visitor), to scan the table with a single instance
+ *         - count(selection, args), and setQueryCacheSize(bytes) to cache ids and counts
+ *         - loadRecord(position), reading ahead the positions requested in sequence
+ *         Models annotated with {@link InMemory} keep their table in memory, with the same API.
  * @param <T>
  * 
  */
 public class RoboManager<T extends RoboModel> {
+
+    public interface Visitor<T extends RoboModel> {
+        /**
+         * @param model
+         *            the instance shared by all the rows, only valid during the call
+         * @return false to stop the iteration
+         */
+        boolean visit(T model);
+    }
+
     private static final String CREATE_ERROR = "Error while creating a model instance.";
 
     private final DatabaseManager mDatabaseManager;
     private final Context mContext;
     private final Class<T> mKlass;
     private final RoboModel mSampleModel;
+    private final Set<String> mIncludes;
 
     /**
      * @param context
@@ -62,28 +112,211 @@ public class RoboManager<T extends RoboModel> {
         return new RoboManager<TT>(context, klass);
     }
 
+    /**
+     * Sets the engine storing the databases of all the models, for example a
+     * {@link JdbcStorageEngine} to use the models on a regular JVM. The database currently open
+     * is closed.
+     */
+    public static void setStorageEngine(StorageEngine engine) {
+        DatabaseManager.setStorageEngine(engine);
+    }
+
+    /**
+     * Sets how long after a write the changes are notified to the {@link ChangeListener}s.
+     * Writes made in the meantime are notified with the same event.
+     */
+    public static void setChangeWindow(long millis) {
+        ChangeNotifier.setWindow(millis);
+    }
+
+    /**
+     * Sets the number of threads decoding and encoding the JSON fields in bulk operations, the
+     * calling thread included. With more than 1, {@link #all()} and {@link #where(String)} load
+     * the models with a single query and decode their JSON fields in parallel, and
+     * {@link #upsertAll(Collection, String)} encodes them in parallel. The default is 1.
+     */
+    public static void setCodecThreads(int threads) {
+        ParallelCodec.setThreads(threads);
+    }
+
+    /**
+     * Caches the ids selected by {@link #getSelectedModelIds}, and so by {@link #all()} and
+     * {@link #where(String)}, and the results of {@link #count(String, String[])}, within the
+     * given estimated memory. The results of a table are dropped by every write made to it
+     * through RoboModel, and queries run in a transaction bypass the cache. The default is 0,
+     * disabled.
+     */
+    public static void setQueryCacheSize(int bytes) {
+        QueryCache.setMaxSize(bytes);
+    }
+
+    /**
+     * @return the ratio of the lookups in the query cache finding a result since the last
+     *         reset, or 0 if there were none. The lookups are also reported to
+     *         {@link RoboMetrics#onCacheLookup(String, boolean)} as the "query" cache.
+     */
+    public static double getQueryCacheHitRatio() {
+        return QueryCache.getHitRatio();
+    }
+
+    public static void resetQueryCacheStats() {
+        QueryCache.resetStats();
+    }
+
+    /**
+     * Sets the rows read at once by {@link #loadRecord(int)} when positions are requested close
+     * to each other. The default is {@value ReadAhead#DEFAULT_ROWS}.
+     * 
+     * @param rows
+     *            the rows of a window, 0 to run a query for every position
+     * @param background
+     *            whether to read the next window on a background thread before it is reached
+     */
+    public static void setReadAhead(int rows, boolean background) {
+        ReadAhead.configure(rows, background);
+    }
+
     private RoboManager(Context context, Class<T> klass) {
         mContext = context;
         mKlass = klass;
         mDatabaseManager = new DatabaseManager(context);
         mSampleModel = create();
+        mIncludes = Collections.emptySet();
+    }
+
+    private RoboManager(RoboManager<T> manager, Set<String> includes) {
+        mContext = manager.mContext;
+        mKlass = manager.mKlass;
+        mDatabaseManager = manager.mDatabaseManager;
+        mSampleModel = manager.mSampleModel;
+        mIncludes = includes;
+    }
+
+    /**
+     * Returns a manager that also loads the given relations of the models it finds. Every
+     * relation costs one more query, however many models are found.
+     * 
+     * @param relations
+     *            the names of {@link BelongsTo} or {@link HasMany} fields of the model
+     */
+    public RoboManager<T> include(String... relations) {
+        final Set<String> includes = new LinkedHashSet<String>(mIncludes);
+        for (final String relation : relations) {
+            RelationLoader.getRelationField(mKlass, relation);
+            includes.add(relation);
+        }
+        return new RoboManager<T>(this, includes);
+    }
+
+    public void addChangeListener(ChangeListener listener) {
+        addChangeListener(listener, null);
+    }
+
+    /**
+     * Registers a listener to the changes made to the table of the model, with any manager.
+     * 
+     * @param filter
+     *            selects the events to deliver, or null to deliver all of them
+     */
+    public void addChangeListener(ChangeListener listener, ChangeListener.Filter filter) {
+        ChangeNotifier.addListener(getTableName(), listener, filter);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        ChangeNotifier.removeListener(getTableName(), listener);
+    }
+
+    /**
+     * Runs the work in a database transaction, committed if it returns normally. The changes
+     * made meanwhile are notified together when it ends, even if it is rolled back.
+     */
+    public void runInTransaction(Runnable work) {
+        mDatabaseManager.runInTransaction(getDatabaseName(), work);
+    }
+
+    public LiveQuery<T> observe(Observer<T> observer) {
+        return observe(null, null, null, observer);
+    }
+
+    public LiveQuery<T> observe(String selection, Observer<T> observer) {
+        return observe(selection, null, null, observer);
+    }
+
+    /**
+     * Runs the query now and again after every change of the table, delivering every new
+     * result with its differences from the previous one. The relations included in this
+     * manager are loaded too, and their changes run the query again as well.
+     */
+    public LiveQuery<T> observe(String selection, String[] selectionArgs, String orderBy,
+                    Observer<T> observer) {
+        final Set<Class<? extends RoboModel>> tables =
+                        new LinkedHashSet<Class<? extends RoboModel>>();
+        final List<Field> relations = new ArrayList<Field>(mIncludes.size());
+        tables.add(mKlass);
+        for (final String relation : mIncludes) {
+            final Field field = RelationLoader.getRelationField(mKlass, relation);
+            tables.add(RelationLoader.getRelatedClass(field));
+            relations.add(field);
+        }
+
+        final LiveQuery<T> liveQuery = new LiveQuery<T>(this, selection, selectionArgs,
+                        orderBy, observer, tables, mSampleModel.getSavedFields(), relations);
+        liveQuery.start();
+        return liveQuery;
     }
 
     public List<T> all() {
-        final long[] ids = getSelectedModelIds(null, null, null, null, null);
-        return getRecords(ids);
+        return where(null, null, null, null, null);
+    }
+
+    /**
+     * @return the version of the schema of the table, incremented by every migration of the
+     *         table to the fields of the model. It is 0 if the table was never created.
+     */
+    public int getSchemaVersion() {
+        openDatabase();
+        return mDatabaseManager.getSchemaVersion(getDatabaseName(), getTableName());
     }
 
     public int count() {
-        //TODO: Direct COUNT() query
-        final long[] ids = getSelectedModelIds(null, null, null, null, null);
-        return ids.length;
+        return count(null, null);
+    }
+
+    /**
+     * @return the number of records matching the selection, counted by the database
+     */
+    public int count(String selection, String[] selectionArgs) {
+        final String[] columns = new String[] { "COUNT(*)" };
+        final String key = getCacheKey(columns, selection, selectionArgs, null, null, null);
+        long version = 0;
+        if (key != null) {
+            final Long count = (Long) QueryCache.get(key);
+            if (count != null) {
+                return count.intValue();
+            }
+            version = QueryCache.getVersion(getTableName());
+        }
+
+        final Cursor query = query(columns, selection, selectionArgs, null, null, null);
+        final long count;
+        try {
+            query.moveToFirst();
+            count = query.getLong(0);
+        } finally {
+            query.close();
+        }
+
+        if (key != null) {
+            QueryCache.put(getTableName(), key, count, version);
+        }
+        return (int) count;
     }
 
     public T last() throws InstanceNotFoundException {
         final T record = create();
         final long id = getLastId();
         record.load(id);
+        loadIncludes(Collections.singletonList(record));
         return record;
     }
 
@@ -99,12 +332,254 @@ public class RoboManager<T extends RoboModel> {
         }
     }
 
+    /**
+     * Deletes all the records matching the selection with a single statement.
+     * 
+     * @return the number of deleted records
+     */
+    public int deleteWhere(String selection, String[] selectionArgs) {
+        /*
+         * In case of invalid DB structure we try to fix it and re-run the delete
+         */
+        try {
+            return mDatabaseManager.deleteRecords(getDatabaseName(), getTableName(), selection,
+                            selectionArgs);
+        } catch (final SQLiteException e) {
+            prepareTable(mDatabaseManager.openOrCreateDatabase(getDatabaseName()));
+            return mDatabaseManager.deleteRecords(getDatabaseName(), getTableName(), selection,
+                            selectionArgs);
+        }
+    }
+
+    public int deleteWhere(String selection) {
+        return deleteWhere(selection, null);
+    }
+
+    /**
+     * Deletes the records of the given models in one transaction, using as few statements as
+     * possible.
+     * 
+     * @return the number of deleted records
+     */
+    public int delete(Collection<T> models) {
+        final long[] ids = new long[models.size()];
+        int i = 0;
+        for (final T model : models) {
+            if (!model.isSaved()) {
+                throw new IllegalStateException("No record in database to delete");
+            }
+            ids[i++] = model.getId();
+        }
+
+        try {
+            return mDatabaseManager.deleteRecords(getDatabaseName(), getTableName(), ids);
+        } catch (final SQLiteException e) {
+            prepareTable(mDatabaseManager.openOrCreateDatabase(getDatabaseName()));
+            return mDatabaseManager.deleteRecords(getDatabaseName(), getTableName(), ids);
+        }
+    }
+
+    /**
+     * Sets the given fields on all the records matching the selection with a single statement.
+     * Values are stored the same way {@link RoboModel#save()} would store them.
+     * 
+     * @param values
+     *            the new values, keyed by field name
+     * @return the number of updated records
+     */
+    public int updateWhere(Map<String, ?> values, String selection, String[] selectionArgs) {
+        final ColumnValues cv = toColumnValues(values);
+        final StorageDatabase db = openDatabase();
+        int count;
+        try {
+            count = mDatabaseManager.updateRecords(getDatabaseName(), getTableName(), cv,
+                            selection, selectionArgs);
+        } catch (final SQLiteException e) {
+            prepareTable(db);
+            count = mDatabaseManager.updateRecords(getDatabaseName(), getTableName(), cv,
+                            selection, selectionArgs);
+        }
+        ensureFullText(db);
+        return count;
+    }
+
+    public int updateWhere(Map<String, ?> values, String selection) {
+        return updateWhere(values, selection, null);
+    }
+
+    public void upsert(T model, String keyField) {
+        upsert(model, keyField, ConflictStrategy.REPLACE);
+    }
+
+    /**
+     * Saves the model, matching it against the existing records by the value of keyField instead
+     * of by id. A unique index on keyField is created if needed.
+     */
+    public void upsert(T model, String keyField, ConflictStrategy strategy) {
+        upsertAll(Collections.singletonList(model), keyField, strategy);
+    }
+
+    public void upsertAll(Collection<T> models, String keyField) {
+        upsertAll(models, keyField, ConflictStrategy.REPLACE);
+    }
+
+    /**
+     * Saves all the models in one transaction with one statement each, matching them against the
+     * existing records by the value of keyField. After this the models hold the ids of their
+     * records.
+     */
+    public void upsertAll(Collection<T> models, String keyField, ConflictStrategy strategy) {
+        final List<Field> fields = mSampleModel.getSavedFields();
+        if (!containsField(fields, keyField)) {
+            final String msg = String.format("Model %s has no saved field %s", getTableName(),
+                            keyField);
+            throw new IllegalArgumentException(msg);
+        }
+
+        final List<ColumnValues> values = getColumnValues(models);
+
+        final StorageDatabase db = openDatabase();
+        long[] ids;
+        try {
+            ids = mDatabaseManager.upsert(getTableName(), values, keyField, strategy, db);
+        } catch (final SQLiteConstraintException e) {
+            // Not a schema problem: the unique index can not be built on duplicated keys
+            throw e;
+        } catch (final SQLiteException e) {
+            prepareTable(db);
+            ids = mDatabaseManager.upsert(getTableName(), values, keyField, strategy, db);
+        }
+        ensureFullText(db);
+
+        int i = 0;
+        for (final T model : models) {
+            model.mId = ids[i++];
+        }
+    }
+
+    /**
+     * Saves all the models in one transaction, reusing one compiled statement for the inserts
+     * and one for the updates. After this the models hold the ids of their records.
+     */
+    public void saveAll(Collection<T> models) {
+        if (models.isEmpty()) {
+            return;
+        }
+        final List<ColumnValues> values = getColumnValues(models);
+        final long[] ids = new long[values.size()];
+        int i = 0;
+        for (final T model : models) {
+            ids[i++] = model.mId;
+        }
+
+        final StorageDatabase db = openDatabase();
+        long[] savedIds;
+        try {
+            savedIds = mDatabaseManager.saveAll(getTableName(), values, ids, db);
+        } catch (final SQLiteException e) {
+            prepareTable(db);
+            savedIds = mDatabaseManager.saveAll(getTableName(), values, ids, db);
+        }
+        ensureFullText(db);
+
+        i = 0;
+        for (final T model : models) {
+            model.mId = savedIds[i++];
+        }
+    }
+
+    private List<ColumnValues> getColumnValues(Collection<T> models) {
+        if (!ParallelCodec.isParallel(models.size()) || mSampleModel.getJsonFields().isEmpty()) {
+            final List<ColumnValues> values = new ArrayList<ColumnValues>(models.size());
+            for (final T model : models) {
+                values.add(model.getColumnValues());
+            }
+            return values;
+        }
+
+        // Encode the JSON fields in parallel
+        final List<T> list = new ArrayList<T>(models);
+        final ColumnValues[] values = new ColumnValues[list.size()];
+        ParallelCodec.run(values.length, new ParallelCodec.Chunk() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    values[i] = list.get(i).getColumnValues();
+                }
+            }
+        });
+        return Arrays.asList(values);
+    }
+
+    private ColumnValues toColumnValues(Map<String, ?> values) {
+        final List<Field> fields = mSampleModel.getSavedFields();
+        final String[] columns = values.keySet().toArray(new String[values.size()]);
+        final ColumnValues cv = new ColumnValues(new ColumnValues.Layout(getTableName(), columns));
+        for (int column = 0; column < columns.length; column++) {
+            final String key = columns[column];
+            final Field field = getField(fields, key);
+            if (field == null) {
+                final String msg = String.format("Model %s has no saved field %s",
+                                getTableName(), key);
+                throw new IllegalArgumentException(msg);
+            }
+
+            final Object value = values.get(key);
+            if (value == null) {
+                cv.putNull(column);
+            } else if (value instanceof String) {
+                RoboModel.putText(field, (String) value, cv, column);
+            } else if (NativeTypes.isNative(field)) {
+                NativeTypes.put(field, value, cv, column);
+            } else if (value instanceof Boolean) {
+                cv.putLong(column, (Boolean) value ? 1 : 0);
+            } else if (value instanceof Float || value instanceof Double) {
+                cv.putDouble(column, ((Number) value).doubleValue());
+            } else if (value instanceof Byte || value instanceof Short
+                            || value instanceof Integer || value instanceof Long) {
+                cv.putLong(column, ((Number) value).longValue());
+            } else if (value instanceof Enum && field.isAnnotationPresent(EnumOrdinal.class)) {
+                cv.putLong(column, EnumCache.codeOf((Enum<?>) value));
+            } else if (value instanceof Enum) {
+                cv.putString(column, ((Enum<?>) value).name());
+            } else if (value instanceof RoboModel) {
+                cv.putLong(column, ((RoboModel) value).getId());
+            } else {
+                try {
+                    RoboModel.putText(field, new ObjectMapper().writeValueAsString(value), cv,
+                                    column);
+                } catch (final JsonProcessingException e) {
+                    throw new JsonException("Error while dumping " + key + " to Json", e);
+                }
+            }
+        }
+        return cv;
+    }
+
+    private static boolean containsField(List<Field> fields, String name) {
+        return getField(fields, name) != null;
+    }
+
+    private static Field getField(List<Field> fields, String name) {
+        for (final Field field : fields) {
+            if (field.getName().equals(name)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
     public T create(String json) {
         ObjectMapper mapper = new ObjectMapper();
         mapper.configure(MapperFeature.USE_ANNOTATIONS, true);
         mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
         try {
+            final RoboMetrics metrics = RoboMetrics.sInstance;
+            final long start = metrics != null ? System.nanoTime() : 0;
             final T result = mapper.readValue(json, mKlass);
+            if (metrics != null) {
+                metrics.onJsonDecode(System.nanoTime() - start);
+            }
             result.setContext(mContext);
             return result;
         } catch (Exception e) {
@@ -142,28 +617,46 @@ public class RoboManager<T extends RoboModel> {
     }
 
     public void dropTable() {
-        final SQLiteDatabase db = mDatabaseManager.openOrCreateDatabase(getDatabaseName());
+        final StorageDatabase db = mDatabaseManager.openOrCreateDatabase(getDatabaseName());
         mDatabaseManager.dropTable(getTableName(), db);
     }
 
     public T find(long id) throws InstanceNotFoundException {
         final T record = create();
         record.load(id);
+        loadIncludes(Collections.singletonList(record));
         return record;
     }
 
+    /**
+     * Loads the model at the position in the table, ordered by id. Positions requested close to
+     * each other, as by a scrolling list, are served from a window of rows read at once.
+     * 
+     * @see #setReadAhead(int, boolean)
+     */
     public T loadRecord(int position) throws InstanceNotFoundException {
         final T model = create();
-        model.loadRecord(position);
+        if (!ReadAhead.load(model, position, mDatabaseManager, openDatabase())) {
+            model.loadRecord(position);
+        }
+        loadIncludes(Collections.singletonList(model));
         return model;
     }
 
+    /**
+     * Loads the given {@link Lazy} fields of the models, or all of them if none is given, with
+     * one query for every few hundred models.
+     */
+    public void loadLazy(Collection<T> models, String... fields) {
+        RoboModel.loadLazy(new ArrayList<T>(models), fields);
+    }
+
     public String getDatabaseName() {
         return mDatabaseManager.getDatabaseName();
     }
 
     private long getLastId() throws InstanceNotFoundException {
-        final SQLiteDatabase db = mDatabaseManager.openOrCreateDatabase(getDatabaseName());
+        final StorageDatabase db = openDatabase();
 
         final String columns[] = new String[] { BaseColumns._ID };
         Cursor query;
@@ -171,10 +664,12 @@ public class RoboManager<T extends RoboModel> {
          * Try the query. If the Table doesn't exist, fix the DB and re-run the query.
          */
         try {
-            query = db.query(getTableName(), columns, null, null, null, null, null);
+            query = mDatabaseManager.query(db, getTableName(), columns, null, null, null, null,
+                            null, null);
         } catch (final SQLiteException e) {
             prepareTable(db);
-            query = db.query(getTableName(), columns, null, null, null, null, null);
+            query = mDatabaseManager.query(db, getTableName(), columns, null, null, null, null,
+                            null, null);
         }
 
         if (query.moveToLast()) {
@@ -187,36 +682,197 @@ public class RoboManager<T extends RoboModel> {
 
     public long[] getSelectedModelIds(String selection, String[] selectionArgs, String groupBy,
                     String having, String orderBy) {
-        final SQLiteDatabase db = mDatabaseManager.openOrCreateDatabase(getDatabaseName());
-
         final String columns[] = new String[] { BaseColumns._ID };
-        Cursor query;
+        final String key = getCacheKey(columns, selection, selectionArgs, groupBy, having,
+                        orderBy);
+        long version = 0;
+        if (key != null) {
+            // The cached ids are copied, as the caller could change them
+            final long[] ids = (long[]) QueryCache.get(key);
+            if (ids != null) {
+                return ids.clone();
+            }
+            version = QueryCache.getVersion(getTableName());
+        }
+
+        final Cursor query = query(columns, selection, selectionArgs, groupBy, having, orderBy);
+
+        final int columnIndex = query.getColumnIndex(BaseColumns._ID);
+        final long result[] = new long[query.getCount()];
+        for (query.moveToFirst(); !query.isAfterLast(); query.moveToNext()) {
+            result[query.getPosition()] = query.getLong(columnIndex);
+        }
+        query.close();
+
+        if (key != null) {
+            QueryCache.put(getTableName(), key, result.clone(), version);
+        }
+        return result;
+    }
+
+    /**
+     * @return the key of the query in the {@link QueryCache}, or null if it is not cached
+     */
+    private String getCacheKey(String[] columns, String selection, String[] selectionArgs,
+                    String groupBy, String having, String orderBy) {
+        if (!QueryCache.isEnabled() || openDatabase().inTransaction()) {
+            return null;
+        }
+        return QueryCache.getKey(getTableName(), columns, selection, selectionArgs, groupBy,
+                        having, orderBy);
+    }
+
+    public int exportJson(OutputStream out) throws IOException {
+        return exportJson(out, null, null, null);
+    }
+
+    /**
+     * Writes the selected rows to the stream as a JSON array, reading them straight from the
+     * cursor. No model instance is created: columns holding JSON are written through as raw
+     * values, so the memory used does not depend on the number of rows.
+     *
+     * @param out
+     *            the stream to write to. It is flushed but not closed.
+     * @return the number of rows written
+     */
+    public int exportJson(OutputStream out, String selection, String[] selectionArgs,
+                    String orderBy) throws IOException {
+        final List<Field> fields = mSampleModel.getSavedFields();
+        final String[] columns = new String[fields.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = fields.get(i).getName();
+        }
+
+        final Cursor query = query(columns, selection, selectionArgs, null, null, orderBy);
+        final JsonGenerator generator = new JsonFactory().createGenerator(out, JsonEncoding.UTF8);
+        int count = 0;
+        try {
+            generator.writeStartArray();
+            for (query.moveToFirst(); !query.isAfterLast(); query.moveToNext()) {
+                generator.writeStartObject();
+                for (int i = 0; i < columns.length; i++) {
+                    generator.writeFieldName(columns[i]);
+                    writeColumn(generator, fields.get(i), query, i);
+                }
+                generator.writeEndObject();
+                count++;
+            }
+            generator.writeEndArray();
+        } finally {
+            query.close();
+            generator.flush();
+        }
+        return count;
+    }
+
+    private static void writeColumn(JsonGenerator generator, Field field, Cursor query,
+                    int columnIndex) throws IOException {
+        final Class<?> type = field.getType();
+        if (query.isNull(columnIndex)) {
+            generator.writeNull();
+        } else if (type.isEnum() && field.isAnnotationPresent(EnumOrdinal.class)) {
+            final Enum<?> value = (Enum<?>) EnumCache.fromCode(type, query.getInt(columnIndex));
+            generator.writeString(value.name());
+        } else if (type == String.class) {
+            generator.writeString(RoboModel.getText(field, query, columnIndex));
+        } else if (type.isEnum()) {
+            generator.writeString(query.getString(columnIndex));
+        } else if (type == Boolean.TYPE) {
+            generator.writeBoolean(query.getInt(columnIndex) == 1);
+        } else if (type == Double.TYPE) {
+            generator.writeNumber(query.getDouble(columnIndex));
+        } else if (type == Float.TYPE) {
+            generator.writeNumber(query.getFloat(columnIndex));
+        } else if (type == Byte.TYPE || type == Short.TYPE || type == Integer.TYPE
+                        || type == Long.TYPE) {
+            generator.writeNumber(query.getLong(columnIndex));
+        } else if (NativeTypes.isNative(field)) {
+            NativeTypes.write(generator, field, query, columnIndex);
+        } else {
+            // Stored as JSON by RoboModel.saveField(): copy it as it is
+            generator.writeRawValue(RoboModel.getText(field, query, columnIndex));
+        }
+    }
+
+    private Cursor query(String[] columns, String selection, String[] selectionArgs,
+                    String groupBy, String having, String orderBy) {
+        final StorageDatabase db = openDatabase();
 
         /*
          * Try the query. If the Table doesn't exist, fix the DB and re-run the query.
          */
         try {
-            query = db.query(getTableName(), columns, selection, selectionArgs, groupBy,
-                            having, orderBy);
+            return mDatabaseManager.query(db, getTableName(), columns, selection, selectionArgs,
+                            groupBy, having, orderBy, null);
         } catch (final SQLiteException e) {
             prepareTable(db);
-            query = db.query(getTableName(), columns, selection, selectionArgs, groupBy,
-                            having, orderBy);
+            return mDatabaseManager.query(db, getTableName(), columns, selection, selectionArgs,
+                            groupBy, having, orderBy, null);
         }
+    }
 
-        final int columnIndex = query.getColumnIndex(BaseColumns._ID);
-        final long result[] = new long[query.getCount()];
-        for (query.moveToFirst(); !query.isAfterLast(); query.moveToNext()) {
-            result[query.getPosition()] = query.getLong(columnIndex);
-        }
+    public List<T> search(String query) {
+        return search(query, -1);
+    }
 
+    /**
+     * Finds the models whose {@link FullText} fields match the query, the ones with more
+     * matches first.
+     * 
+     * @param query
+     *            a full text query: words, prefixes like {@code "robo*"} or quoted phrases,
+     *            optionally combined with OR and NOT
+     * @param limit
+     *            the maximum number of models, or a negative number for all of them
+     */
+    public List<T> search(String query, int limit) {
+        final List<T> result = fetch(searchIds(query, limit));
+        loadIncludes(result);
         return result;
     }
 
-    private void prepareTable(final SQLiteDatabase db) {
+    /**
+     * @return the ids of the models {@link #search(String, int)} would return, in the same
+     *         order
+     */
+    public long[] searchIds(String query, int limit) {
+        final List<String> columns = DatabaseManager.getFullTextColumns(mSampleModel
+                        .getSavedFields());
+        if (columns.isEmpty()) {
+            final String msg = String.format("Model %s has no @FullText field", getTableName());
+            throw new IllegalStateException(msg);
+        }
+
+        final StorageDatabase db = openDatabase();
+        try {
+            mDatabaseManager.ensureFullText(getTableName(), columns, mSampleModel.isInMemory(),
+                            db);
+        } catch (final SQLiteException e) {
+            prepareTable(db);
+            mDatabaseManager.ensureFullText(getTableName(), columns, mSampleModel.isInMemory(),
+                            db);
+        }
+        return mDatabaseManager.searchFullText(getTableName(), query, limit, db);
+    }
+
+    private void ensureFullText(StorageDatabase db) {
+        final List<String> columns = DatabaseManager.getFullTextColumns(mSampleModel
+                        .getSavedFields());
+        if (!columns.isEmpty()) {
+            mDatabaseManager.ensureFullText(getTableName(), columns, mSampleModel.isInMemory(),
+                            db);
+        }
+    }
+
+    private StorageDatabase openDatabase() {
+        return mDatabaseManager.openTable(mSampleModel);
+    }
+
+    private void prepareTable(final StorageDatabase db) {
         T model = create();
 
-        mDatabaseManager.createOrPopulateTable(getTableName(), model.getSavedFields(), db);
+        mDatabaseManager.createOrPopulateTable(getTableName(), model.getSavedFields(),
+                        model.isInMemory(), db);
     }
 
     private String getTableName() {
@@ -244,19 +900,191 @@ public class RoboManager<T extends RoboModel> {
 
     public List<T> where(String selection, String[] selectionArgs, String groupBy, String having,
                     String orderBy) {
+        if (ParallelCodec.isEnabled()) {
+            // Whole rows are read at once, and only their ids are cached
+            final String key = getCacheKey(new String[] { BaseColumns._ID }, selection,
+                            selectionArgs, groupBy, having, orderBy);
+            final long[] cached = key != null ? (long[]) QueryCache.get(key) : null;
+            final List<T> result;
+            if (cached != null) {
+                result = fetch(cached);
+            } else {
+                final long version = key != null ? QueryCache.getVersion(getTableName()) : 0;
+                result = fetch(selection, selectionArgs, groupBy, having, orderBy);
+                if (key != null) {
+                    final long[] ids = new long[result.size()];
+                    for (int i = 0; i < ids.length; i++) {
+                        ids[i] = result.get(i).getId();
+                    }
+                    QueryCache.put(getTableName(), key, ids, version);
+                }
+            }
+            loadIncludes(result);
+            return result;
+        }
         final long[] ids = getSelectedModelIds(selection, selectionArgs, groupBy, having, orderBy);
         return getRecords(ids);
     }
 
+    public int forEach(String selection, Visitor<T> visitor) {
+        return forEach(selection, null, null, visitor);
+    }
+
+    /**
+     * Loads the models matching the selection one row at a time into a single instance, passed
+     * to the visitor. No model is allocated per row, so the visitor must copy what it needs
+     * instead of keeping the instance. Relations are not included.
+     * 
+     * @return the number of models visited
+     */
+    public int forEach(String selection, String[] selectionArgs, String orderBy,
+                    Visitor<T> visitor) {
+        final String[] columns = mSampleModel.getLoadedColumns();
+        final T model = create();
+        Cursor query = query(columns, selection, selectionArgs, null, null, orderBy);
+        try {
+            return visit(query, model, visitor);
+        } catch (final DatabaseNotUpToDateException e) {
+            // Thrown by the first row, before any visit
+            Ln.w(e, "Updating table %s", getTableName());
+            query.close();
+            prepareTable(mDatabaseManager.openOrCreateDatabase(getDatabaseName()));
+
+            query = query(columns, selection, selectionArgs, null, null, orderBy);
+            try {
+                return visit(query, model, visitor);
+            } catch (final DatabaseNotUpToDateException ee) {
+                throw new RuntimeException("Could not repair database.", ee);
+            }
+        } finally {
+            query.close();
+        }
+    }
+
+    private int visit(Cursor query, T model, Visitor<T> visitor)
+                    throws DatabaseNotUpToDateException {
+        int count = 0;
+        for (query.moveToFirst(); !query.isAfterLast(); query.moveToNext()) {
+            model.load(query);
+            count++;
+            if (!visitor.visit(model)) {
+                break;
+            }
+        }
+        return count;
+    }
+
     private List<T> getRecords(long[] ids) {
         final List<T> result = new ArrayList<T>(ids.length);
         for (final long id : ids) {
             try {
-                result.add(find(id));
+                final T record = create();
+                record.load(id);
+                result.add(record);
             } catch (final InstanceNotFoundException e) {
                 Ln.w(e, "Record with id %d was deleted while being loaded", id);
             }
         }
+        loadIncludes(result);
+        return result;
+    }
+
+    private void loadIncludes(List<T> models) {
+        if (!mIncludes.isEmpty()) {
+            RelationLoader.load(mContext, mKlass, models, mIncludes);
+        }
+    }
+
+    /**
+     * Loads the selected models and the included relations, with one query each.
+     */
+    List<T> load(String selection, String[] selectionArgs, String orderBy) {
+        final List<T> result = fetch(selection, selectionArgs, orderBy);
+        loadIncludes(result);
+        return result;
+    }
+
+    /**
+     * Loads the selected models with a single query on all the columns.
+     */
+    List<T> fetch(String selection, String[] selectionArgs, String orderBy) {
+        return fetch(selection, selectionArgs, null, null, orderBy);
+    }
+
+    /**
+     * @return the models with the given ids, in the same order, without their relations
+     */
+    private List<T> fetch(long[] ids) {
+        final Map<Long, T> found = new HashMap<Long, T>(ids.length * 2);
+        for (int from = 0; from < ids.length; from += DatabaseManager.BULK_CHUNK_SIZE) {
+            final int to = Math.min(from + DatabaseManager.BULK_CHUNK_SIZE, ids.length);
+            for (final T model : fetch(DatabaseManager.where(ids, from, to), null, null)) {
+                found.put(model.getId(), model);
+            }
+        }
+
+        final List<T> result = new ArrayList<T>(ids.length);
+        for (final long id : ids) {
+            final T model = found.get(id);
+            if (model != null) {
+                result.add(model);
+            }
+        }
+        return result;
+    }
+
+    private List<T> fetch(String selection, String[] selectionArgs, String groupBy,
+                    String having, String orderBy) {
+        final String[] columns = mSampleModel.getLoadedColumns();
+        Cursor query = query(columns, selection, selectionArgs, groupBy, having, orderBy);
+        try {
+            return getRecords(query);
+        } catch (final DatabaseNotUpToDateException e) {
+            Ln.w(e, "Updating table %s", getTableName());
+            query.close();
+            prepareTable(mDatabaseManager.openOrCreateDatabase(getDatabaseName()));
+
+            query = query(columns, selection, selectionArgs, groupBy, having, orderBy);
+            try {
+                return getRecords(query);
+            } catch (final DatabaseNotUpToDateException ee) {
+                throw new RuntimeException("Could not repair database.", ee);
+            }
+        } finally {
+            query.close();
+        }
+    }
+
+    private List<T> getRecords(Cursor query) throws DatabaseNotUpToDateException {
+        final int count = query.getCount();
+        final List<T> result = new ArrayList<T>(count);
+        final List<Field> deferred = ParallelCodec.isParallel(count) ? mSampleModel
+                        .getJsonFields() : Collections.<Field> emptyList();
+        if (deferred.isEmpty()) {
+            for (query.moveToFirst(); !query.isAfterLast(); query.moveToNext()) {
+                final T record = create();
+                record.load(query);
+                result.add(record);
+            }
+            return result;
+        }
+
+        // Read the JSON on this thread, the only one allowed on the cursor, and decode it in
+        // parallel
+        final String[][] json = new String[count][];
+        for (query.moveToFirst(); !query.isAfterLast(); query.moveToNext()) {
+            final T record = create();
+            json[result.size()] = record.loadDeferred(query, deferred);
+            result.add(record);
+        }
+        ParallelCodec.run(result.size(), new ParallelCodec.Chunk() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    result.get(i).decode(deferred, json[i]);
+                }
+            }
+        });
         return result;
     }
 }
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel;
+
+/**
+ * Receives what RoboModel does with the database. Subclass it overriding the events you are
+ * interested in, or use {@link RoboMetricsRegistry}, then {@link #install(RoboMetrics)} it.
+ * 
+ * Events are delivered on the thread doing the work, so implementations must be quick and
+ * thread safe. When nothing is installed no time is measured at all.
+ * 
+ * All durations are in nanoseconds.
+ */
+public abstract class RoboMetrics {
+    static volatile RoboMetrics sInstance;
+
+    /**
+     * @param metrics
+     *            the listener receiving the events, or null to stop collecting them
+     */
+    public static void install(RoboMetrics metrics) {
+        sInstance = metrics;
+    }
+
+    public static RoboMetrics getInstalled() {
+        return sInstance;
+    }
+
+    /**
+     * @param rows
+     *            the number of rows in the result
+     */
+    public void onQuery(String tableName, long nanos, int rows) {
+    }
+
+    public void onInsert(String tableName, long nanos, int rows) {
+    }
+
+    public void onUpdate(String tableName, long nanos, int rows) {
+    }
+
+    public void onDelete(String tableName, long nanos, int rows) {
+    }
+
+    /**
+     * Called when the fields of models are set from a query result.
+     */
+    public void onHydrate(String tableName, long nanos, int models) {
+    }
+
+    public void onJsonEncode(long nanos) {
+    }
+
+    public void onJsonDecode(long nanos) {
+    }
+
+    /**
+     * Called when a table is created or fixed because it did not match its model.
+     */
+    public void onSchemaRepair(String tableName) {
+    }
+
+    public void onCacheLookup(String cacheName, boolean hit) {
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.nonninz.robomodel.util.Histogram;
+
+/**
+ * A {@link RoboMetrics} keeping counters and latency histograms per table. After a table has been
+ * seen once, recording an event does not allocate nor lock.
+ * 
+ * Usage:
+ * 
+ * <pre>
+ * RoboMetricsRegistry registry = new RoboMetricsRegistry();
+ * RoboMetrics.install(registry);
+ * ...
+ * Ln.d(&quot;%s&quot;, registry.getTableStats(&quot;MyModel&quot;));
+ * </pre>
+ */
+public class RoboMetricsRegistry extends RoboMetrics {
+
+    public static class TableStats {
+        public final Histogram queries = new Histogram();
+        public final Histogram inserts = new Histogram();
+        public final Histogram updates = new Histogram();
+        public final Histogram deletes = new Histogram();
+        public final Histogram hydrations = new Histogram();
+
+        private final AtomicLong mRowsRead = new AtomicLong();
+        private final AtomicLong mRowsWritten = new AtomicLong();
+        private final AtomicLong mModelsHydrated = new AtomicLong();
+        private final AtomicLong mSchemaRepairs = new AtomicLong();
+
+        public long getRowsRead() {
+            return mRowsRead.get();
+        }
+
+        public long getRowsWritten() {
+            return mRowsWritten.get();
+        }
+
+        public long getModelsHydrated() {
+            return mModelsHydrated.get();
+        }
+
+        public long getSchemaRepairs() {
+            return mSchemaRepairs.get();
+        }
+
+        @Override
+        public String toString() {
+            return "{queries: " + queries + ", inserts: " + inserts + ", updates: " + updates
+                            + ", deletes: " + deletes + ", hydrations: " + hydrations
+                            + ", rowsRead: " + getRowsRead() + ", rowsWritten: "
+                            + getRowsWritten() + ", modelsHydrated: " + getModelsHydrated()
+                            + ", schemaRepairs: " + getSchemaRepairs() + "}";
+        }
+    }
+
+    private final ConcurrentHashMap<String, TableStats> mTables =
+                    new ConcurrentHashMap<String, TableStats>();
+    /** The hits, then the misses, by cache */
+    private final ConcurrentHashMap<String, AtomicLongArray> mCaches =
+                    new ConcurrentHashMap<String, AtomicLongArray>();
+    private final Histogram mJsonEncode = new Histogram();
+    private final Histogram mJsonDecode = new Histogram();
+
+    /**
+     * @return the statistics of the table, created empty if the table was never seen
+     */
+    public TableStats getTableStats(String tableName) {
+        TableStats stats = mTables.get(tableName);
+        if (stats == null) {
+            final TableStats created = new TableStats();
+            stats = mTables.putIfAbsent(tableName, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    public Set<String> getTableNames() {
+        return new HashSet<String>(mTables.keySet());
+    }
+
+    public Histogram getJsonEncode() {
+        return mJsonEncode;
+    }
+
+    public Histogram getJsonDecode() {
+        return mJsonDecode;
+    }
+
+    /**
+     * @return the ratio of hits over lookups of the cache, or 0 if it was never used
+     */
+    public double getCacheHitRatio(String cacheName) {
+        final AtomicLongArray counters = mCaches.get(cacheName);
+        if (counters == null) {
+            return 0;
+        }
+        final long hits = counters.get(0);
+        final long lookups = hits + counters.get(1);
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public void reset() {
+        mTables.clear();
+        mCaches.clear();
+        mJsonEncode.reset();
+        mJsonDecode.reset();
+    }
+
+    @Override
+    public void onQuery(String tableName, long nanos, int rows) {
+        final TableStats stats = getTableStats(tableName);
+        stats.queries.record(nanos);
+        stats.mRowsRead.addAndGet(rows);
+    }
+
+    @Override
+    public void onInsert(String tableName, long nanos, int rows) {
+        final TableStats stats = getTableStats(tableName);
+        stats.inserts.record(nanos);
+        stats.mRowsWritten.addAndGet(rows);
+    }
+
+    @Override
+    public void onUpdate(String tableName, long nanos, int rows) {
+        final TableStats stats = getTableStats(tableName);
+        stats.updates.record(nanos);
+        stats.mRowsWritten.addAndGet(rows);
+    }
+
+    @Override
+    public void onDelete(String tableName, long nanos, int rows) {
+        final TableStats stats = getTableStats(tableName);
+        stats.deletes.record(nanos);
+        stats.mRowsWritten.addAndGet(rows);
+    }
+
+    @Override
+    public void onHydrate(String tableName, long nanos, int models) {
+        final TableStats stats = getTableStats(tableName);
+        stats.hydrations.record(nanos);
+        stats.mModelsHydrated.addAndGet(models);
+    }
+
+    @Override
+    public void onJsonEncode(long nanos) {
+        mJsonEncode.record(nanos);
+    }
+
+    @Override
+    public void onJsonDecode(long nanos) {
+        mJsonDecode.record(nanos);
+    }
+
+    @Override
+    public void onSchemaRepair(String tableName) {
+        final TableStats stats = getTableStats(tableName);
+        stats.mSchemaRepairs.incrementAndGet();
+    }
+
+    @Override
+    public void onCacheLookup(String cacheName, boolean hit) {
+        AtomicLongArray counters = mCaches.get(cacheName);
+        if (counters == null) {
+            final AtomicLongArray created = new AtomicLongArray(2);
+            counters = mCaches.putIfAbsent(cacheName, created);
+            if (counters == null) {
+                counters = created;
+            }
+        }
+        counters.incrementAndGet(hit ? 0 : 1);
+    }
+}
@@ -19,27 +19,39 @@ import static android.provider.BaseColumns._ID;
 import static com.nonninz.robomodel.DatabaseManager.where;
 
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteException;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nonninz.robomodel.annotations.BelongsTo;
+import com.nonninz.robomodel.annotations.Compressed;
+import com.nonninz.robomodel.annotations.EnumOrdinal;
 import com.nonninz.robomodel.annotations.Exclude;
+import com.nonninz.robomodel.annotations.HasMany;
+import com.nonninz.robomodel.annotations.InMemory;
+import com.nonninz.robomodel.annotations.Lazy;
 import com.nonninz.robomodel.annotations.Save;
 import com.nonninz.robomodel.exceptions.DatabaseNotUpToDateException;
 import com.nonninz.robomodel.exceptions.InstanceNotFoundException;
 import com.nonninz.robomodel.exceptions.JsonException;
+import com.nonninz.robomodel.storage.StorageDatabase;
+import com.nonninz.robomodel.util.Compression;
+import com.nonninz.robomodel.util.EnumCache;
 import com.nonninz.robomodel.util.Ln;
 
 /**
@@ -48,12 +60,35 @@ import com.nonninz.robomodel.util.Ln;
  * - save()
  * - delete()
  * - reload()
+ * - loadLazy(fields)
  * 
  */
 @JsonAutoDetect(creatorVisibility = Visibility.NONE, fieldVisibility = Visibility.PUBLIC_ONLY, getterVisibility = Visibility.NONE, setterVisibility = Visibility.NONE, isGetterVisibility = Visibility.NONE)
 public abstract class RoboModel {
     public static final long UNSAVED_MODEL_ID = -1;
 
+    /** The saved fields of every model class, made accessible */
+    private static final Map<Class<?>, List<Field>> sSavedFields = new ConcurrentHashMap<Class<?>, List<Field>>();
+    /** The columns of the table of every model class */
+    private static final Map<Class<?>, ColumnValues.Layout> sLayouts = new ConcurrentHashMap<Class<?>, ColumnValues.Layout>();
+
+    /**
+     * Registers the models and creates or migrates their tables in one transaction on a
+     * background thread. The models are used as usual meanwhile: the database waits for the
+     * initialization to finish instead of repairing the tables itself.
+     * 
+     * @param models
+     *            the model classes, for example from
+     *            <code>Arrays.&lt;Class&lt;? extends RoboModel&gt;&gt; asList(...)</code>
+     */
+    public static void initialize(Context context, List<Class<? extends RoboModel>> models) {
+        final List<RoboModel> samples = new ArrayList<RoboModel>(models.size());
+        for (final Class<? extends RoboModel> klass : models) {
+            samples.add(reference(klass, context, UNSAVED_MODEL_ID));
+        }
+        new DatabaseManager(context).initialize(samples);
+    }
+
     private String mTableName;
 
     protected long mId = UNSAVED_MODEL_ID;
@@ -62,6 +97,10 @@ public abstract class RoboModel {
     private Context mContext;
     private DatabaseManager mDatabaseManager;
     private final ObjectMapper mMapper = new ObjectMapper();
+    /** The unloaded {@link Lazy} fields, with the value they held when the model was loaded */
+    private final Map<String, Object> mUnloadedFields = new HashMap<String, Object>();
+    /** Reused by every save */
+    private ColumnValues mValues;
 
     protected void setContext(Context context) {
         mContext = context;
@@ -91,11 +130,24 @@ public abstract class RoboModel {
         return mTableName;
     }
 
+    boolean isInMemory() {
+        return mClass.isAnnotationPresent(InMemory.class);
+    }
+
     public long getId() {
         return mId;
     }
 
-    List<Field> getSavedFields() { //TODO: cache results
+    List<Field> getSavedFields() {
+        List<Field> savedFields = sSavedFields.get(mClass);
+        if (savedFields == null) {
+            savedFields = Collections.unmodifiableList(findSavedFields());
+            sSavedFields.put(mClass, savedFields);
+        }
+        return savedFields;
+    }
+
+    private List<Field> findSavedFields() {
         final List<Field> savedFields = new ArrayList<Field>();
 
         final Field[] declaredFields = getClass().getDeclaredFields();
@@ -107,8 +159,11 @@ public abstract class RoboModel {
             saved = saved || Modifier.isPublic(field.getModifiers()); // If it is public, save it
             saved = saved && !Modifier.isStatic(field.getModifiers()); // If it is static, don't save it
             saved = saved && !field.isAnnotationPresent(Exclude.class); // If @Exclude, don't save it
+            saved = saved && !field.isAnnotationPresent(HasMany.class); // If @HasMany, it has no column
 
             if (saved) {
+                // The fields are shared: leave them accessible
+                field.setAccessible(true);
                 savedFields.add(field);
             }
         }
@@ -116,6 +171,136 @@ public abstract class RoboModel {
         return savedFields;
     }
 
+    /**
+     * @return the fields read when loading the model: all but the {@link Lazy} ones
+     */
+    List<Field> getLoadedFields() {
+        final List<Field> fields = new ArrayList<Field>();
+        for (final Field field : getSavedFields()) {
+            if (!field.isAnnotationPresent(Lazy.class)) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * @return the columns of the {@link #getLoadedFields()}, followed by _id
+     */
+    String[] getLoadedColumns() {
+        final List<Field> fields = getLoadedFields();
+        final String[] columns = new String[fields.size() + 1];
+        for (int i = 0; i < fields.size(); i++) {
+            columns[i] = fields.get(i).getName();
+        }
+        columns[fields.size()] = _ID;
+        return columns;
+    }
+
+    private List<Field> getLazyFields(String... fieldNames) {
+        final List<Field> lazyFields = new ArrayList<Field>();
+        for (final Field field : getSavedFields()) {
+            if (field.isAnnotationPresent(Lazy.class)) {
+                lazyFields.add(field);
+            }
+        }
+        if (fieldNames.length == 0) {
+            return lazyFields;
+        }
+
+        final List<Field> result = new ArrayList<Field>(fieldNames.length);
+        for (final String name : fieldNames) {
+            Field found = null;
+            for (final Field field : lazyFields) {
+                if (field.getName().equals(name)) {
+                    found = field;
+                }
+            }
+            if (found == null) {
+                final String msg = String.format("Model %s has no lazy field %s",
+                                getTableName(), name);
+                throw new IllegalArgumentException(msg);
+            }
+            result.add(found);
+        }
+        return result;
+    }
+
+    /**
+     * Loads the given {@link Lazy} fields, or all of them if none is given.
+     */
+    public void loadLazy(String... fieldNames) {
+        if (!isSaved()) {
+            throw new IllegalStateException("This instance has not yet been saved.");
+        }
+
+        loadLazy(Collections.singletonList(this), fieldNames);
+    }
+
+    /**
+     * Loads the given {@link Lazy} fields of models of the same class, with one query every
+     * BULK_CHUNK_SIZE models.
+     */
+    static void loadLazy(List<? extends RoboModel> models, String... fieldNames) {
+        final Map<Long, RoboModel> saved = new HashMap<Long, RoboModel>();
+        for (final RoboModel model : models) {
+            if (model.isSaved()) {
+                saved.put(model.getId(), model);
+            }
+        }
+        if (saved.isEmpty()) {
+            return;
+        }
+
+        final RoboModel sample = saved.values().iterator().next();
+        final List<Field> fields = sample.getLazyFields(fieldNames);
+        final String[] columns = new String[fields.size() + 1];
+        columns[0] = _ID;
+        for (int i = 0; i < fields.size(); i++) {
+            columns[i + 1] = fields.get(i).getName();
+        }
+
+        final long[] ids = new long[saved.size()];
+        int i = 0;
+        for (final Long id : saved.keySet()) {
+            ids[i++] = id;
+        }
+
+        final DatabaseManager databaseManager = sample.mDatabaseManager;
+        final StorageDatabase db = databaseManager.openTable(sample);
+        final String tableName = sample.getTableName();
+        for (int from = 0; from < ids.length; from += DatabaseManager.BULK_CHUNK_SIZE) {
+            final int to = Math.min(from + DatabaseManager.BULK_CHUNK_SIZE, ids.length);
+            final String selection = where(ids, from, to);
+
+            Cursor query;
+            try {
+                query = databaseManager.query(db, tableName, columns, selection, null, null,
+                                null, null, null);
+            } catch (final SQLiteException e) {
+                databaseManager.createOrPopulateTable(tableName, sample.getSavedFields(),
+                                sample.isInMemory(), db);
+                query = databaseManager.query(db, tableName, columns, selection, null, null,
+                                null, null, null);
+            }
+
+            try {
+                for (query.moveToFirst(); !query.isAfterLast(); query.moveToNext()) {
+                    final RoboModel model = saved.get(query.getLong(0));
+                    for (final Field field : fields) {
+                        model.loadField(field, query);
+                        model.mUnloadedFields.remove(field.getName());
+                    }
+                }
+            } catch (final DatabaseNotUpToDateException e) {
+                // Should not happen: the columns were explicitly selected
+                throw new RuntimeException(e);
+            } finally {
+                query.close();
+            }
+        }
+    }
+
     public boolean isSaved() {
         return mId != UNSAVED_MODEL_ID;
     }
@@ -133,20 +318,19 @@ public abstract class RoboModel {
         final Class<?> type = field.getType();
         final boolean wasAccessible = field.isAccessible();
         final int columnIndex = query.getColumnIndex(field.getName());
+        if (columnIndex == -1) {
+            throw new DatabaseNotUpToDateException("No column for field " + field.getName());
+        }
         field.setAccessible(true);
 
         /*
-         * TODO: There is the potential of a problem here:
-         * What happens if the developer changes the type of a field between releases?
-         *
-         * If he saves first, then the column type will be changed (In the future).
-         * If he loads first, we don't know if an Exception will be thrown if the
-         * types are incompatible, because it's undocumented in the Cursor documentation.
+         * The table is migrated the first time it is used, so a field whose type changed
+         * between releases finds its values already converted to the new type.
          */
 
         try {
             if (type == String.class) {
-                field.set(this, query.getString(columnIndex));
+                field.set(this, getText(field, query, columnIndex));
             } else if (type == Boolean.TYPE) {
                 final boolean value = query.getInt(columnIndex) == 1 ? true : false;
                 field.setBoolean(this, value);
@@ -162,36 +346,31 @@ public abstract class RoboModel {
                 field.setLong(this, query.getLong(columnIndex));
             } else if (type == Short.TYPE) {
                 field.setShort(this, query.getShort(columnIndex));
+            } else if (NativeTypes.isNative(field)) {
+                field.set(this, NativeTypes.get(field, query, columnIndex));
+            } else if (field.isAnnotationPresent(BelongsTo.class)) {
+                if (query.isNull(columnIndex)) {
+                    field.set(this, null);
+                } else {
+                    field.set(this, reference(type.asSubclass(RoboModel.class), mContext,
+                                    query.getLong(columnIndex)));
+                }
             } else if (type.isEnum()) {
-                final String string = query.getString(columnIndex);
-                if (string != null && string.length() > 0) {
-                    final Object[] constants = type.getEnumConstants();
-                    final Method method = type.getMethod("valueOf", Class.class, String.class);
-                    final Object value = method.invoke(constants[0], type, string);
-                    field.set(this, value);
+                // NULL is a null value, also when the instance is reused
+                if (field.isAnnotationPresent(EnumOrdinal.class)) {
+                    field.set(this, query.isNull(columnIndex) ? null : EnumCache.fromCode(type,
+                                    query.getInt(columnIndex)));
+                } else {
+                    final String string = query.getString(columnIndex);
+                    field.set(this, string == null || string.length() == 0 ? null : EnumCache
+                                    .valueOf(type, string));
                 }
             } else {
-                // Try to de-json it (db column must be of type text)
-                try {
-                    final Object value = mMapper.readValue(query.getString(columnIndex),
-                                    field.getType());
-                    field.set(this, value);
-                } catch (final Exception e) {
-                    final String msg = String.format("Type %s is not supported for field %s", type,
-                                    field.getName());
-                    Ln.w(e, msg);
-                    throw new IllegalArgumentException(msg);
-                }
+                decodeField(field, getText(field, query, columnIndex));
             }
         } catch (final IllegalAccessException e) {
             final String msg = String.format("Field %s is not accessible", type, field.getName());
             throw new IllegalArgumentException(msg);
-        } catch (final NoSuchMethodException e) {
-            // Should not happen
-            throw new RuntimeException(e);
-        } catch (final InvocationTargetException e) {
-            // Should not happen
-            throw new RuntimeException(e);
         } catch (IllegalStateException e) {
             // This is when there is no column in db, but there is in the model
             throw new DatabaseNotUpToDateException(e);
@@ -207,17 +386,21 @@ public abstract class RoboModel {
         }
 
         // Retrieve current entry in the database
-        SQLiteDatabase db = mDatabaseManager.openOrCreateDatabase(getDatabaseName());
+        final StorageDatabase db = mDatabaseManager.openTable(this);
+        final String[] columns = getLoadedColumns();
         Cursor query;
 
         /*
          * Try to query the table. If the Table doesn't exist, fix the DB and re-run the query.
          */
         try {
-            query = db.query(getTableName(), null, where(mId), null, null, null, null);
+            query = mDatabaseManager.query(db, getTableName(), columns, where(mId), null, null,
+                            null, null, null);
         } catch (final SQLiteException e) {
-            mDatabaseManager.createOrPopulateTable(mTableName, getSavedFields(), db);
-            query = db.query(getTableName(), null, where(mId), null, null, null, null);
+            mDatabaseManager.createOrPopulateTable(mTableName, getSavedFields(), isInMemory(),
+                            db);
+            query = mDatabaseManager.query(db, getTableName(), columns, where(mId), null, null,
+                            null, null, null);
         }
 
         if (query.moveToFirst()) {
@@ -228,13 +411,13 @@ public abstract class RoboModel {
                 query.close();
 
                 // Update table with new columns
-                mDatabaseManager.createOrPopulateTable(mTableName, getSavedFields(), db);
-                mDatabaseManager.closeDatabase();
-                db = mDatabaseManager.openOrCreateDatabase(getDatabaseName());
+                mDatabaseManager.createOrPopulateTable(mTableName, getSavedFields(), isInMemory(),
+                            db);
 
                 // Retry
                 try {
-                    query = db.query(getTableName(), null, where(mId), null, null, null, null);
+                    query = mDatabaseManager.query(db, getTableName(), columns, where(mId), null,
+                            null, null, null, null);
                     query.moveToFirst();
                     setFieldsWithQueryResult(query);
                 } catch (DatabaseNotUpToDateException ee) {
@@ -253,15 +436,19 @@ public abstract class RoboModel {
 
     void loadRecord(int position) throws InstanceNotFoundException {
         // Retrieve current entry in the database
-        SQLiteDatabase db = mDatabaseManager.openOrCreateDatabase(getDatabaseName());
+        final StorageDatabase db = mDatabaseManager.openTable(this);
+        final String[] columns = getLoadedColumns();
         Cursor query;
 
         final String limit = String.format("%d,1", position);
         try {
-            query = db.query(getTableName(), null, null, null, null, null, _ID, limit);
+            query = mDatabaseManager.query(db, getTableName(), columns, null, null, null, null,
+                            _ID, limit);
         } catch (final SQLiteException e) {
-            mDatabaseManager.createOrPopulateTable(mTableName, getSavedFields(), db);
-            query = db.query(getTableName(), null, null, null, null, null, _ID, limit);
+            mDatabaseManager.createOrPopulateTable(mTableName, getSavedFields(), isInMemory(),
+                            db);
+            query = mDatabaseManager.query(db, getTableName(), columns, null, null, null, null,
+                            _ID, limit);
         }
 
         if (query.moveToFirst()) {
@@ -272,13 +459,13 @@ public abstract class RoboModel {
                 query.close();
 
                 // Update table with new columns
-                mDatabaseManager.createOrPopulateTable(mTableName, getSavedFields(), db);
-                mDatabaseManager.closeDatabase();
-                db = mDatabaseManager.openOrCreateDatabase(getDatabaseName());
+                mDatabaseManager.createOrPopulateTable(mTableName, getSavedFields(), isInMemory(),
+                            db);
 
                 // Retry
                 try {
-                    query = db.query(getTableName(), null, null, null, null, null, _ID, limit);
+                    query = mDatabaseManager.query(db, getTableName(), columns, null, null, null,
+                            null, _ID, limit);
                     query.moveToFirst();
                     setFieldsWithQueryResult(query);
                 } catch (DatabaseNotUpToDateException ee) {
@@ -299,57 +486,140 @@ public abstract class RoboModel {
     }
 
     public void save() {
-        final SQLiteDatabase database = mDatabaseManager.openOrCreateDatabase(getDatabaseName());
+        final StorageDatabase database = mDatabaseManager.openTable(this);
 
         List<Field> fields = getSavedFields();
-        final TypedContentValues cv = new TypedContentValues(fields.size());
-        for (final Field field : fields) {
-            saveField(field, cv);
-        }
+        final ColumnValues cv = getColumnValues();
 
         // First try to save it. Then deal with errors (like table/field not existing);
         try {
             mId = mDatabaseManager.insertOrUpdate(getTableName(), cv, mId, database);
         } catch (final SQLiteException ex) {
-            mDatabaseManager.createOrPopulateTable(getTableName(), fields, database);
+            mDatabaseManager.createOrPopulateTable(getTableName(), fields, isInMemory(),
+                            database);
             mId = mDatabaseManager.insertOrUpdate(getTableName(), cv, mId, database);
         }
+
+        final List<String> fullText = DatabaseManager.getFullTextColumns(fields);
+        if (!fullText.isEmpty()) {
+            mDatabaseManager.ensureFullText(getTableName(), fullText, isInMemory(), database);
+        }
+    }
+
+    /**
+     * @return the values of the saved fields, in an instance reused by the next call
+     */
+    ColumnValues getColumnValues() {
+        if (mValues == null) {
+            ColumnValues.Layout layout = sLayouts.get(mClass);
+            if (layout == null) {
+                layout = new ColumnValues.Layout(getTableName(), getSavedFields());
+                sLayouts.put(mClass, layout);
+            }
+            mValues = new ColumnValues(layout);
+        } else {
+            mValues.clear();
+        }
+
+        final List<Field> fields = getSavedFields();
+        for (int i = 0; i < fields.size(); i++) {
+            final Field field = fields.get(i);
+            // An unloaded lazy field would overwrite the stored value, unless it was assigned
+            if (mUnloadedFields.isEmpty() || isAssigned(field)) {
+                saveField(field, mValues, i);
+            }
+        }
+        return mValues;
+    }
+
+    /**
+     * @return whether the field was loaded, or assigned since the model was loaded. An assigned
+     *         {@link Lazy} field is saved, and counts as loaded from now on.
+     */
+    private boolean isAssigned(Field field) {
+        final String name = field.getName();
+        if (!mUnloadedFields.containsKey(name)) {
+            return true;
+        }
+
+        final Object loaded = mUnloadedFields.get(name);
+        final Object value = getFieldValue(field);
+        // Primitives are boxed again on every read
+        final boolean assigned = field.getType().isPrimitive() ? !value.equals(loaded)
+                        : value != loaded;
+        if (assigned) {
+            mUnloadedFields.remove(name);
+        }
+        return assigned;
     }
 
-    void saveField(Field field, TypedContentValues cv) {
+    private Object getFieldValue(Field field) {
+        final boolean wasAccessible = field.isAccessible();
+        field.setAccessible(true);
+        try {
+            return field.get(this);
+        } catch (final IllegalAccessException e) {
+            final String msg = String.format("Field %s is not accessible", field.getName());
+            throw new IllegalArgumentException(msg);
+        } finally {
+            field.setAccessible(wasAccessible);
+        }
+    }
+
+    void saveField(Field field, ColumnValues values, int column) {
         final Class<?> type = field.getType();
         final boolean wasAccessible = field.isAccessible();
         field.setAccessible(true);
 
         try {
             if (type == String.class) {
-                cv.put(field.getName(), (String) field.get(this));
+                putText(field, (String) field.get(this), values, column);
             } else if (type == Boolean.TYPE) {
-                cv.put(field.getName(), field.getBoolean(this));
+                values.putLong(column, field.getBoolean(this) ? 1 : 0);
             } else if (type == Byte.TYPE) {
-                cv.put(field.getName(), field.getByte(this));
+                values.putLong(column, field.getByte(this));
             } else if (type == Double.TYPE) {
-                cv.put(field.getName(), field.getDouble(this));
+                values.putDouble(column, field.getDouble(this));
             } else if (type == Float.TYPE) {
-                cv.put(field.getName(), field.getFloat(this));
+                values.putDouble(column, field.getFloat(this));
             } else if (type == Integer.TYPE) {
-                cv.put(field.getName(), field.getInt(this));
+                values.putLong(column, field.getInt(this));
             } else if (type == Long.TYPE) {
-                cv.put(field.getName(), field.getLong(this));
+                values.putLong(column, field.getLong(this));
             } else if (type == Short.TYPE) {
-                cv.put(field.getName(), field.getShort(this));
+                values.putLong(column, field.getShort(this));
+            } else if (NativeTypes.isNative(field)) {
+                NativeTypes.put(field, field.get(this), values, column);
+            } else if (field.isAnnotationPresent(BelongsTo.class)) {
+                final RoboModel value = (RoboModel) field.get(this);
+                if (value == null) {
+                    values.putNull(column);
+                } else if (value.isSaved()) {
+                    values.putLong(column, value.getId());
+                } else {
+                    final String msg = String.format("Field %s refers to an unsaved model",
+                                    field.getName());
+                    throw new IllegalStateException(msg);
+                }
             } else if (type.isEnum()) {
-                final Object value = field.get(this);
-                if (value != null) {
-                    final Method method = type.getMethod("name");
-                    final String str = (String) method.invoke(value);
-                    cv.put(field.getName(), str);
+                final Enum<?> value = (Enum<?>) field.get(this);
+                if (value == null) {
+                    values.putNull(column);
+                } else if (field.isAnnotationPresent(EnumOrdinal.class)) {
+                    values.putLong(column, EnumCache.codeOf(value));
+                } else {
+                    values.putString(column, value.name());
                 }
             }
             else {
                 // Try to JSONify it (db column must be of type text)
+                final RoboMetrics metrics = RoboMetrics.sInstance;
+                final long start = metrics != null ? System.nanoTime() : 0;
                 final String json = mMapper.writeValueAsString(field.get(this));
-                cv.put(field.getName(), json);
+                if (metrics != null) {
+                    metrics.onJsonEncode(System.nanoTime() - start);
+                }
+                putText(field, json, values, column);
             }
         } catch (final IllegalAccessException e) {
             final String msg = String.format("Field %s is not accessible", type, field.getName());
@@ -358,22 +628,160 @@ public abstract class RoboModel {
             Ln.w(e, "Error while dumping %s of type %s to Json", field.getName(), type);
             final String msg = String.format("Field %s is not accessible", type, field.getName());
             throw new IllegalArgumentException(msg);
-        } catch (final NoSuchMethodException e) {
-            // Should not happen
-            throw new RuntimeException(e);
-        } catch (final InvocationTargetException e) {
-            // Should not happen
-            throw new RuntimeException(e);
         } finally {
             field.setAccessible(wasAccessible);
         }
     }
 
+    /**
+     * Puts the text of a String or JSON field, compressed if the field is {@link Compressed}
+     */
+    static void putText(Field field, String text, ColumnValues values, int column) {
+        final Compressed compressed = field.getAnnotation(Compressed.class);
+        if (compressed != null && text != null && text.length() >= compressed.threshold()) {
+            final byte[] data = Compression.compress(text);
+            if (data != null) {
+                values.putBlob(column, data);
+                return;
+            }
+        }
+        values.putString(column, text);
+    }
+
+    /**
+     * @return the text of a String or JSON field, decompressed if it was stored compressed
+     */
+    static String getText(Field field, Cursor query, int columnIndex) {
+        try {
+            return query.getString(columnIndex);
+        } catch (final SQLException e) {
+            // A BLOB can not be read as a string: it is compressed text. Cursor.getType() is
+            // not available before API 11.
+            if (!field.isAnnotationPresent(Compressed.class)) {
+                throw e;
+            }
+            return Compression.decompress(query.getBlob(columnIndex));
+        }
+    }
+
+    /**
+     * Loads the model from the current row of a query on all the columns of its table
+     */
+    void load(Cursor query) throws DatabaseNotUpToDateException {
+        setFieldsWithQueryResult(query);
+        mId = query.getLong(query.getColumnIndexOrThrow(_ID));
+    }
+
+    /**
+     * @return a model of the given class with only its id set
+     */
+    static <M extends RoboModel> M reference(Class<M> klass, Context context, long id) {
+        try {
+            final M model = klass.newInstance();
+            model.setContext(context);
+            model.mId = id;
+            return model;
+        } catch (final InstantiationException e) {
+            throw new RuntimeException("Error while creating a model instance.", e);
+        } catch (final IllegalAccessException e) {
+            throw new RuntimeException("Error while creating a model instance.", e);
+        }
+    }
+
+    /**
+     * @return whether the field is stored as JSON
+     */
+    static boolean isJsonField(Field field) {
+        final Class<?> type = field.getType();
+        return type != String.class && !type.isPrimitive() && !type.isEnum()
+                        && !NativeTypes.isNative(field)
+                        && !field.isAnnotationPresent(BelongsTo.class);
+    }
+
+    /**
+     * @return the loaded fields stored as JSON
+     */
+    List<Field> getJsonFields() {
+        final List<Field> jsonFields = new ArrayList<Field>();
+        for (final Field field : getSavedFields()) {
+            if (isJsonField(field) && !field.isAnnotationPresent(Lazy.class)) {
+                jsonFields.add(field);
+            }
+        }
+        return jsonFields;
+    }
+
+    /**
+     * Like {@link #load(Cursor)}, but only reads the JSON of the deferred fields
+     * 
+     * @return the JSON of the deferred fields, to pass to {@link #decode(List, String[])}
+     */
+    String[] loadDeferred(Cursor query, List<Field> deferred) throws DatabaseNotUpToDateException {
+        setFieldsWithQueryResult(query, deferred);
+        mId = query.getLong(query.getColumnIndexOrThrow(_ID));
+
+        final String[] json = new String[deferred.size()];
+        for (int i = 0; i < json.length; i++) {
+            final int columnIndex = query.getColumnIndex(deferred.get(i).getName());
+            if (columnIndex == -1) {
+                throw new DatabaseNotUpToDateException("No column for field "
+                                + deferred.get(i).getName());
+            }
+            json[i] = getText(deferred.get(i), query, columnIndex);
+        }
+        return json;
+    }
+
+    /**
+     * Decodes the JSON read by {@link #loadDeferred(Cursor, List)}. It can run on any thread.
+     */
+    void decode(List<Field> deferred, String[] json) {
+        for (int i = 0; i < json.length; i++) {
+            decodeField(deferred.get(i), json[i]);
+        }
+    }
+
+    private void decodeField(Field field, String json) {
+        // Try to de-json it (db column must be of type text)
+        try {
+            final RoboMetrics metrics = RoboMetrics.sInstance;
+            final long start = metrics != null ? System.nanoTime() : 0;
+            final JavaType javaType = mMapper.getTypeFactory().constructType(
+                            field.getGenericType());
+            final Object value = mMapper.readValue(json, javaType);
+            if (metrics != null) {
+                metrics.onJsonDecode(System.nanoTime() - start);
+            }
+            field.set(this, value);
+        } catch (final Exception e) {
+            final String msg = String.format("Type %s is not supported for field %s",
+                            field.getType(), field.getName());
+            Ln.w(e, msg);
+            throw new IllegalArgumentException(msg);
+        }
+    }
+
     private void setFieldsWithQueryResult(Cursor query) throws DatabaseNotUpToDateException {
+        setFieldsWithQueryResult(query, Collections.<Field> emptyList());
+    }
+
+    private void setFieldsWithQueryResult(Cursor query, List<Field> deferred)
+                    throws DatabaseNotUpToDateException {
+        final RoboMetrics metrics = RoboMetrics.sInstance;
+        final long start = metrics != null ? System.nanoTime() : 0;
+
         // Iterate over the columns and auto-assign values on corresponding fields
         final List<Field> fields = getSavedFields();
         for (final Field field : fields) {
-            loadField(field, query);
+            if (field.isAnnotationPresent(Lazy.class)) {
+                mUnloadedFields.put(field.getName(), getFieldValue(field));
+            } else if (!deferred.contains(field)) {
+                loadField(field, query);
+            }
+        }
+
+        if (metrics != null) {
+            metrics.onHydrate(getTableName(), System.nanoTime() - start, 1);
         }
 
 //        final String[] columns = query.getColumnNames();
@@ -416,7 +824,13 @@ public abstract class RoboModel {
 
     public String toJson() {
         try {
-            return mMapper.writeValueAsString(this);
+            final RoboMetrics metrics = RoboMetrics.sInstance;
+            final long start = metrics != null ? System.nanoTime() : 0;
+            final String json = mMapper.writeValueAsString(this);
+            if (metrics != null) {
+                metrics.onJsonEncode(System.nanoTime() - start);
+            }
+            return json;
         } catch (JsonProcessingException e) {
             throw new JsonException(e);
         }
@@ -1,12 +1,20 @@
 package com.nonninz.robomodel;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import android.content.Context;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.nonninz.robomodel.annotations.BelongsTo;
 import com.nonninz.robomodel.util.Ln;
 
 /**
@@ -28,64 +36,157 @@ import com.nonninz.robomodel.util.Ln;
 /**
  * @author Francesco Donadon <francesco.donadon@gmail.com>
  * 
+ *         The models are found in the public fields holding a model, a collection, a map, an
+ *         array or another RoboModelCollection, nested at any depth.
  */
 @JsonAutoDetect(creatorVisibility = Visibility.NONE, fieldVisibility = Visibility.PUBLIC_ONLY, getterVisibility = Visibility.NONE, setterVisibility = Visibility.NONE, isGetterVisibility = Visibility.NONE)
 public class RoboModelCollection<T extends RoboModel> {
+    /** The fields holding models of every collection class */
+    private static final Map<Class<?>, Field[]> sMemberFields = new ConcurrentHashMap<Class<?>, Field[]>();
 
+    private Context mContext;
+
+    /**
+     * Saves all the models in one transaction, each class of models with
+     * {@link RoboManager#saveAll(Collection)}. The classes referred to by
+     * {@link BelongsTo} fields are saved first.
+     */
     public void save() {
-        Field[] fields = getClass().getFields();
-        for (Field f : fields) {
-            try {
-                if (f.getType().isAssignableFrom(Collection.class)) {
-                    @SuppressWarnings("unchecked")
-                    Collection<? extends RoboModel> list = (Collection<? extends RoboModel>) f
-                                    .get(this);
-                    if (list != null) {
-                        for (RoboModel model : list) {
-                            model.save();
-                        }
-                    }
+        final Map<Class<? extends RoboModel>, List<RoboModel>> models = getModels();
+        if (models.isEmpty()) {
+            return;
+        }
+
+        Context context = mContext;
+        if (context == null) {
+            context = models.values().iterator().next().get(0).getContext();
+        }
+        final Context managerContext = context;
+        final DatabaseManager databaseManager = new DatabaseManager(context);
+        databaseManager.runInTransaction(databaseManager.getDatabaseName(), new Runnable() {
+            @Override
+            public void run() {
+                for (final Class<? extends RoboModel> klass : sortByDependency(models)) {
+                    saveAll(managerContext, klass, models.get(klass));
                 }
-                if (f.getType().isArray()) {
-                    RoboModel[] list = (RoboModel[]) f.get(this);
-                    if (list != null) {
-                        for (RoboModel model : list) {
-                            model.save();
-                        }
-                    }
+            }
+        });
+    }
+
+    void setContext(Context context) {
+        mContext = context;
+        for (final List<RoboModel> models : getModels().values()) {
+            for (final RoboModel model : models) {
+                model.setContext(context);
+            }
+        }
+    }
+
+    /**
+     * @return the models held by the collection, once each, by class
+     */
+    private Map<Class<? extends RoboModel>, List<RoboModel>> getModels() {
+        final Map<Class<? extends RoboModel>, List<RoboModel>> models = new LinkedHashMap<Class<? extends RoboModel>, List<RoboModel>>();
+        collect(this, models, new IdentityHashMap<Object, Boolean>());
+        return models;
+    }
+
+    private static void collect(Object value, Map<Class<? extends RoboModel>, List<RoboModel>> models,
+                    Map<Object, Boolean> visited) {
+        if (value == null || visited.put(value, Boolean.TRUE) != null) {
+            return;
+        }
+
+        if (value instanceof RoboModel) {
+            final RoboModel model = (RoboModel) value;
+            List<RoboModel> list = models.get(model.getClass());
+            if (list == null) {
+                list = new ArrayList<RoboModel>();
+                models.put(model.getClass(), list);
+            }
+            list.add(model);
+        } else if (value instanceof RoboModelCollection) {
+            for (final Field field : getMemberFields(value.getClass())) {
+                try {
+                    collect(field.get(value), models, visited);
+                } catch (final IllegalAccessException e) {
+                    Ln.d(e, "Error while accessing field %s", field.getName());
                 }
-            } catch (IllegalAccessException e) {
-                Ln.d(e, "Error while accessing field %s", f.getName());
+            }
+        } else if (value instanceof Collection) {
+            for (final Object item : (Collection<?>) value) {
+                collect(item, models, visited);
+            }
+        } else if (value instanceof Map) {
+            for (final Object item : ((Map<?, ?>) value).values()) {
+                collect(item, models, visited);
+            }
+        } else if (value instanceof Object[]) {
+            for (final Object item : (Object[]) value) {
+                collect(item, models, visited);
             }
         }
     }
 
-    void setContext(Context context) {
-        Field[] fields = getClass().getFields();
-        for (Field f : fields) {
-            try {
-                if (f.getType().isAssignableFrom(Collection.class)) {
-                    @SuppressWarnings("unchecked")
-                    Collection<? extends RoboModel> list = (Collection<? extends RoboModel>) f
-                                    .get(this);
-                    if (list != null) {
-                        for (RoboModel model : list) {
-                            model.setContext(context);
-                        }
-                    }
+    private static Field[] getMemberFields(Class<?> klass) {
+        Field[] fields = sMemberFields.get(klass);
+        if (fields == null) {
+            final List<Field> members = new ArrayList<Field>();
+            for (final Field field : klass.getFields()) {
+                final Class<?> type = field.getType();
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
                 }
-                if (f.getType().isArray()) {
-                    RoboModel[] list = (RoboModel[]) f.get(this);
-                    if (list != null) {
-                        for (RoboModel model : list) {
-                            model.setContext(context);
-                        }
-                    }
+                if (Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)
+                                || Object[].class.isAssignableFrom(type)
+                                || RoboModel.class.isAssignableFrom(type)
+                                || RoboModelCollection.class.isAssignableFrom(type)) {
+                    members.add(field);
                 }
-            } catch (IllegalAccessException e) {
-                Ln.d(e, "Error while accessing field %s", f.getName());
             }
+            fields = members.toArray(new Field[members.size()]);
+            sMemberFields.put(klass, fields);
         }
+        return fields;
     }
 
+    /**
+     * @return the classes, each after the classes its {@link BelongsTo} fields refer to
+     */
+    private static List<Class<? extends RoboModel>> sortByDependency(
+                    Map<Class<? extends RoboModel>, List<RoboModel>> models) {
+        final List<Class<? extends RoboModel>> pending = new ArrayList<Class<? extends RoboModel>>(
+                        models.keySet());
+        final List<Class<? extends RoboModel>> sorted = new ArrayList<Class<? extends RoboModel>>(
+                        pending.size());
+        while (!pending.isEmpty()) {
+            // On a cycle, the first pending class goes anyway
+            Class<? extends RoboModel> next = pending.get(0);
+            for (final Class<? extends RoboModel> klass : pending) {
+                if (!dependsOnAny(models.get(klass).get(0), pending)) {
+                    next = klass;
+                    break;
+                }
+            }
+            pending.remove(next);
+            sorted.add(next);
+        }
+        return sorted;
+    }
+
+    private static boolean dependsOnAny(RoboModel model, List<Class<? extends RoboModel>> classes) {
+        for (final Field field : model.getSavedFields()) {
+            if (field.isAnnotationPresent(BelongsTo.class) && field.getType() != model.getClass()
+                            && classes.contains(field.getType())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <M extends RoboModel> void saveAll(Context context, Class<M> klass,
+                    List<RoboModel> models) {
+        RoboManager.get(context, klass).saveAll((List<M>) models);
+    }
 }
@@ -0,0 +1,317 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel;
+
+import static android.provider.BaseColumns._ID;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nonninz.robomodel.storage.StorageDatabase;
+import com.nonninz.robomodel.storage.StorageStatement;
+import com.nonninz.robomodel.util.EnumCache;
+import com.nonninz.robomodel.util.Ln;
+
+/**
+ * SchemaMigration:
+ * 1. Diffs the fields of a model against the columns stored for its table
+ * 2. Plans the statements bringing the table up to date: new columns are added in place, while
+ * changed types and removed columns rebuild the table through a copy, converting the values
+ * with SQL expressions, or in Java for the values stored as JSON
+ * 3. Keeps the version of the schema of every table in {@value #SCHEMA_TABLE}
+ * 
+ */
+final class SchemaMigration {
+    static final String SCHEMA_TABLE = "robomodel_schema";
+    private static final String COPY_SUFFIX = "_migration";
+
+    private SchemaMigration() {
+    }
+
+    /**
+     * @return the declared types of the columns of the table but _id, by name. It is empty if
+     *         the table does not exist.
+     */
+    static Map<String, String> getStoredColumns(String tableName, boolean inMemory,
+                    StorageDatabase db) {
+        final Map<String, String> columns = new LinkedHashMap<String, String>();
+        final String schema = inMemory ? "temp" : "main";
+        final Cursor cursor = db.rawQuery("PRAGMA " + schema + ".table_info(" + tableName + ")",
+                        null);
+        try {
+            final int nameIndex = cursor.getColumnIndexOrThrow("name");
+            final int typeIndex = cursor.getColumnIndexOrThrow("type");
+            while (cursor.moveToNext()) {
+                final String name = cursor.getString(nameIndex);
+                if (!_ID.equals(name)) {
+                    columns.put(name, cursor.getString(typeIndex));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+
+    /**
+     * @param stored
+     *            the columns of the table, as returned by
+     *            {@link #getStoredColumns(String, boolean, StorageDatabase)}
+     * @return the statements to run in a transaction to migrate the table, or an empty list if
+     *         it is up to date
+     */
+    static List<String> plan(String tableName, List<Field> fields, Map<String, String> stored,
+                    boolean inMemory) {
+        final List<String> statements = new ArrayList<String>();
+        if (stored.isEmpty()) {
+            statements.add(DatabaseManager.getCreateTableSql(tableName, fields, inMemory));
+            return statements;
+        }
+
+        boolean rebuild = false;
+        final Set<String> names = new HashSet<String>();
+        for (final Field field : fields) {
+            final String name = field.getName();
+            final String type = DatabaseManager.getTypeForField(field);
+            final String storedType = stored.get(name);
+            names.add(name);
+            if (storedType == null) {
+                statements.add(String.format("ALTER TABLE %s ADD %s %s;", tableName, name,
+                                type));
+            } else if (!storedType.equalsIgnoreCase(type)) {
+                rebuild = true;
+            }
+        }
+        rebuild = rebuild || !names.containsAll(stored.keySet());
+        if (!rebuild) {
+            return statements;
+        }
+
+        // Copy the records into a new table, converting the values of the columns whose type
+        // changed. The new columns are left NULL.
+        final String schema = inMemory ? "temp." : "";
+        final String copy = tableName + COPY_SUFFIX;
+        final StringBuilder columns = new StringBuilder();
+        final StringBuilder values = new StringBuilder();
+        for (final Field field : fields) {
+            final String storedType = stored.get(field.getName());
+            if (storedType != null) {
+                columns.append(field.getName()).append(", ");
+                values.append(convert(field, storedType)).append(", ");
+            }
+        }
+        columns.append(_ID);
+        values.append(_ID);
+
+        statements.clear();
+        statements.add(DatabaseManager.getCreateTableSql(copy, fields, inMemory));
+        statements.add(String.format("INSERT INTO %s%s (%s) SELECT %s FROM %s%s;", schema, copy,
+                        columns, values, schema, tableName));
+        // The copy continues the AUTOINCREMENT sequence, so that the ids of deleted records
+        // are not given again. The schema is always named, as the temporary sqlite_sequence
+        // hides the main one.
+        final String sequence = (inMemory ? "temp" : "main") + ".sqlite_sequence";
+        statements.add(String.format("DELETE FROM %s WHERE name = '%s';", sequence, copy));
+        statements.add(String.format("INSERT INTO %1$s (name, seq) "
+                        + "SELECT '%2$s', seq FROM %1$s WHERE name = '%3$s';", sequence, copy,
+                        tableName));
+        statements.add(String.format("DROP TABLE %s%s;", schema, tableName));
+        statements.add(String.format("ALTER TABLE %s%s RENAME TO %s;", schema, copy, tableName));
+        // The full text index is rebuilt from the new table when it is needed
+        statements.add(String.format("DROP TABLE IF EXISTS %s%s%s;", schema, tableName,
+                        DatabaseManager.FULL_TEXT_SUFFIX));
+        return statements;
+    }
+
+    /**
+     * @return the SQL expression converting the column to the current type of the field
+     */
+    static String convert(Field field, String storedType) {
+        final String column = field.getName();
+        final String type = DatabaseManager.getTypeForField(field);
+        if (storedType.equalsIgnoreCase(type)) {
+            return column;
+        }
+
+        final Class<?> klass = field.getType();
+        if (NativeTypes.isNative(field) && "TEXT".equalsIgnoreCase(storedType)) {
+            // Stored as JSON: copied as it is and converted by a LegacyJson
+            return column;
+        } else if (klass.isEnum()) {
+            // Between names and codes. Unknown values become NULL.
+            final Object[] constants = klass.getEnumConstants();
+            final boolean toCode = "INTEGER".equals(type);
+            final StringBuilder sql = new StringBuilder("CASE ").append(column);
+            for (final Object constant : constants) {
+                final String name = ((Enum<?>) constant).name();
+                final int code = EnumCache.codeOf((Enum<?>) constant);
+                if (toCode) {
+                    sql.append(" WHEN '").append(name).append("' THEN ").append(code);
+                } else {
+                    sql.append(" WHEN ").append(code).append(" THEN '").append(name).append("'");
+                }
+            }
+            return sql.append(" END").toString();
+        } else if ("BOOLEAN".equals(type)) {
+            return String.format("CASE WHEN %1$s IS NULL THEN NULL "
+                            + "WHEN %1$s IN (1, '1', 'true') THEN 1 ELSE 0 END", column);
+        } else {
+            return String.format("CAST(%s AS %s)", column, type);
+        }
+    }
+
+    /**
+     * The values of the fields that older versions stored as JSON and are now stored natively.
+     * They are read from the table before it is rebuilt and written back to the copy, as SQL
+     * can not tell a JSON null from a value.
+     */
+    static final class LegacyJson {
+        private final ColumnValues.Layout mLayout;
+        private final List<Long> mIds = new ArrayList<Long>();
+        private final List<ColumnValues> mValues = new ArrayList<ColumnValues>();
+
+        private LegacyJson(ColumnValues.Layout layout) {
+            mLayout = layout;
+        }
+
+        /**
+         * @return the values to convert, or null if there are none
+         */
+        static LegacyJson read(String tableName, List<Field> fields, Map<String, String> stored,
+                        boolean inMemory, StorageDatabase db) {
+            final List<Field> legacy = new ArrayList<Field>();
+            for (final Field field : fields) {
+                final String storedType = stored.get(field.getName());
+                if (NativeTypes.isNative(field) && "TEXT".equalsIgnoreCase(storedType)
+                                && !"TEXT".equals(DatabaseManager.getTypeForField(field))) {
+                    legacy.add(field);
+                }
+            }
+            if (legacy.isEmpty()) {
+                return null;
+            }
+
+            final LegacyJson values = new LegacyJson(new ColumnValues.Layout(tableName, legacy));
+            final String[] columns = new String[legacy.size() + 1];
+            columns[0] = _ID;
+            System.arraycopy(values.mLayout.columns, 0, columns, 1, legacy.size());
+            final ObjectMapper mapper = new ObjectMapper();
+            final Cursor cursor = db.query((inMemory ? "temp." : "") + tableName, columns, null,
+                            null, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    final ColumnValues cv = new ColumnValues(values.mLayout);
+                    for (int i = 0; i < legacy.size(); i++) {
+                        final Field field = legacy.get(i);
+                        final String json = cursor.getString(i + 1);
+                        NativeTypes.put(field, json == null ? null : parse(mapper, field, json),
+                                        cv, i);
+                    }
+                    values.mIds.add(cursor.getLong(0));
+                    values.mValues.add(cv);
+                }
+            } finally {
+                cursor.close();
+            }
+            return values;
+        }
+
+        private static Object parse(ObjectMapper mapper, Field field, String json) {
+            try {
+                return mapper.readValue(json, mapper.getTypeFactory().constructType(
+                                field.getGenericType()));
+            } catch (final IOException e) {
+                Ln.w(e, "Dropping value %s of field %s", json, field.getName());
+                return null;
+            }
+        }
+
+        /**
+         * Writes the converted values to the rebuilt table
+         */
+        void write(StorageDatabase db) {
+            final StorageStatement statement = db.compileStatement(mLayout.getUpdateSql());
+            try {
+                for (int i = 0; i < mIds.size(); i++) {
+                    statement.clearBindings();
+                    statement.bindLong(mValues.get(i).bindAll(statement, 1), mIds.get(i));
+                    statement.executeUpdateDelete();
+                }
+            } finally {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * Increments the version of the schema of the table, recording its columns
+     */
+    static void recordVersion(String tableName, List<Field> fields, StorageDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + SCHEMA_TABLE + " (name TEXT PRIMARY KEY, "
+                        + "version INTEGER NOT NULL, columns TEXT NOT NULL);");
+
+        final StringBuilder columns = new StringBuilder();
+        for (final Field field : fields) {
+            columns.append(columns.length() > 0 ? ", " : "").append(field.getName()).append(' ')
+                            .append(DatabaseManager.getTypeForField(field));
+        }
+
+        final StorageStatement statement = db.compileStatement("INSERT OR REPLACE INTO "
+                        + SCHEMA_TABLE + " (name, version, columns) VALUES (?1, COALESCE((SELECT "
+                        + "version FROM " + SCHEMA_TABLE + " WHERE name = ?1), 0) + 1, ?2)");
+        try {
+            statement.bindString(1, tableName);
+            statement.bindString(2, columns.toString());
+            statement.execute();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * @return the version of the schema of the table, 0 if it was never migrated
+     */
+    static int getVersion(String tableName, StorageDatabase db) {
+        final StorageStatement statement;
+        try {
+            statement = db.compileStatement("SELECT version FROM " + SCHEMA_TABLE
+                            + " WHERE name = ?");
+        } catch (final SQLiteException e) {
+            // No table yet
+            return 0;
+        }
+
+        try {
+            statement.bindString(1, tableName);
+            return (int) statement.simpleQueryForLong();
+        } catch (final SQLiteException e) {
+            // No record for the table
+            return 0;
+        } finally {
+            statement.close();
+        }
+    }
+}
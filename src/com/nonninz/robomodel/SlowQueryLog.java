@@ -0,0 +1,177 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+
+import com.nonninz.robomodel.storage.StorageDatabase;
+import com.nonninz.robomodel.util.Ln;
+
+/**
+ * Keeps the last queries that took longer than a threshold, together with their
+ * EXPLAIN QUERY PLAN. The plan is captured once for every distinct SQL shape, that is the SQL
+ * with its literals replaced by placeholders.
+ * 
+ * Usage:
+ * 
+ * <pre>
+ * SlowQueryLog.install(new SlowQueryLog(50, 100));
+ * ...
+ * for (SlowQueryLog.Record record : SlowQueryLog.getInstalled().getRecords()) {
+ *     Ln.d(&quot;%s&quot;, record);
+ * }
+ * </pre>
+ */
+public class SlowQueryLog {
+    private static final int MAX_PLANS = 128;
+    private static final Pattern LITERALS = Pattern
+                    .compile("'(?:[^']|'')*'|\\b\\d+(?:\\.\\d+)?\\b");
+
+    static volatile SlowQueryLog sInstance;
+
+    public static class Record {
+        public final String sql;
+        public final String[] args;
+        public final long nanos;
+        public final int rows;
+        public final String plan;
+        public final long timestamp;
+
+        Record(String sql, String[] args, long nanos, int rows, String plan) {
+            this.sql = sql;
+            this.args = args;
+            this.nanos = nanos;
+            this.rows = rows;
+            this.plan = plan;
+            this.timestamp = System.currentTimeMillis();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d ms, %d rows: %s %s\n%s", nanos / 1000000, rows, sql,
+                            args == null ? "[]" : Arrays.toString(args), plan);
+        }
+    }
+
+    private final long mThresholdNanos;
+    private final Record[] mRecords;
+    private int mNext;
+    private int mSize;
+    private final Map<String, String> mPlans = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_PLANS;
+        }
+    };
+
+    /**
+     * @param log
+     *            the log to fill, or null to stop logging
+     */
+    public static void install(SlowQueryLog log) {
+        sInstance = log;
+    }
+
+    public static SlowQueryLog getInstalled() {
+        return sInstance;
+    }
+
+    /**
+     * @param thresholdMillis
+     *            queries taking longer than this are logged
+     * @param capacity
+     *            how many records to keep. When full, the oldest record is dropped.
+     */
+    public SlowQueryLog(long thresholdMillis, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        mThresholdNanos = thresholdMillis * 1000000;
+        mRecords = new Record[capacity];
+    }
+
+    /**
+     * @return the records, oldest first
+     */
+    public synchronized List<Record> getRecords() {
+        final List<Record> result = new ArrayList<Record>(mSize);
+        final int first = mNext - mSize + mRecords.length;
+        for (int i = 0; i < mSize; i++) {
+            result.add(mRecords[(first + i) % mRecords.length]);
+        }
+        return result;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(mRecords, null);
+        mNext = 0;
+        mSize = 0;
+    }
+
+    boolean isSlow(long nanos) {
+        return nanos >= mThresholdNanos;
+    }
+
+    void record(StorageDatabase db, String sql, String[] args, long nanos, int rows) {
+        final String plan = getPlan(db, sql, args);
+        final Record record = new Record(sql, args, nanos, rows, plan);
+        Ln.w("Slow query: %s", record);
+
+        synchronized (this) {
+            mRecords[mNext] = record;
+            mNext = (mNext + 1) % mRecords.length;
+            mSize = Math.min(mSize + 1, mRecords.length);
+        }
+    }
+
+    private String getPlan(StorageDatabase db, String sql, String[] args) {
+        final String shape = LITERALS.matcher(sql).replaceAll("?");
+        synchronized (this) {
+            final String plan = mPlans.get(shape);
+            if (plan != null) {
+                return plan;
+            }
+        }
+
+        final StringBuilder plan = new StringBuilder();
+        try {
+            final Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+            final int detail = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                plan.append(plan.length() > 0 ? "\n" : "").append(cursor.getString(detail));
+            }
+            cursor.close();
+        } catch (final SQLiteException e) {
+            Ln.w(e, "Could not explain query %s", sql);
+            plan.append("(unavailable)");
+        }
+
+        synchronized (this) {
+            mPlans.put(shape, plan.toString());
+        }
+        return plan.toString();
+    }
+}
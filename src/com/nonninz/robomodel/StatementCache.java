@@ -0,0 +1,123 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.nonninz.robomodel.storage.StorageDatabase;
+import com.nonninz.robomodel.storage.StorageStatement;
+
+/**
+ * The compiled statements of the shared database, by table and SQL, so that saving a model
+ * does not compile its statement again. A statement is taken out of the cache while it is used,
+ * so a thread needing a statement that another one is using compiles its own. The statements are
+ * closed when their table changes or the database is closed. The lock is never held while
+ * running a statement, which may wait for the transaction of another thread.
+ */
+final class StatementCache {
+    private static final Object sLock = new Object();
+    // Guarded by sLock
+    private static StorageDatabase sDatabase;
+    private static final Map<String, Map<String, StorageStatement>> sStatements =
+                    new HashMap<String, Map<String, StorageStatement>>();
+
+    private StatementCache() {
+    }
+
+    /**
+     * Caches the statements of the database from now on
+     */
+    static void open(StorageDatabase db) {
+        synchronized (sLock) {
+            sDatabase = db;
+        }
+    }
+
+    /**
+     * @return the cached statement, or a new one. It must be given back with
+     *         {@link #release(StorageDatabase, String, String, StorageStatement)} once it was
+     *         run successfully, or closed.
+     */
+    static StorageStatement acquire(StorageDatabase db, String tableName, String sql) {
+        synchronized (sLock) {
+            if (db == sDatabase) {
+                final Map<String, StorageStatement> statements = sStatements.get(tableName);
+                final StorageStatement statement = statements != null ? statements.remove(sql)
+                                : null;
+                if (statement != null) {
+                    return statement;
+                }
+            }
+        }
+        return db.compileStatement(sql);
+    }
+
+    static void release(StorageDatabase db, String tableName, String sql,
+                    StorageStatement statement) {
+        statement.clearBindings();
+        synchronized (sLock) {
+            if (db == sDatabase) {
+                Map<String, StorageStatement> statements = sStatements.get(tableName);
+                if (statements == null) {
+                    statements = new HashMap<String, StorageStatement>();
+                    sStatements.put(tableName, statements);
+                }
+                if (!statements.containsKey(sql)) {
+                    statements.put(sql, statement);
+                    return;
+                }
+            }
+        }
+        statement.close();
+    }
+
+    /**
+     * Closes the statements of the table, before its schema changes
+     */
+    static void invalidate(String tableName) {
+        final Map<String, StorageStatement> statements;
+        synchronized (sLock) {
+            statements = sStatements.remove(tableName);
+        }
+        if (statements != null) {
+            close(statements.values());
+        }
+    }
+
+    /**
+     * Closes all the statements, before the database is closed
+     */
+    static void clear() {
+        final List<StorageStatement> statements = new ArrayList<StorageStatement>();
+        synchronized (sLock) {
+            sDatabase = null;
+            for (final Map<String, StorageStatement> table : sStatements.values()) {
+                statements.addAll(table.values());
+            }
+            sStatements.clear();
+        }
+        close(statements);
+    }
+
+    private static void close(Iterable<StorageStatement> statements) {
+        for (final StorageStatement statement : statements) {
+            statement.close();
+        }
+    }
+}
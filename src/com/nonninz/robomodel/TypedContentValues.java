@@ -23,7 +23,12 @@ import android.content.ContentValues;
 
 /**
  * This class is a wrapper of {@link ContentValues} that also stores the type of the field.
+ * 
+ * @deprecated models are no longer written through it, but through the package private
+ *             {@code ColumnValues}, bound straight to compiled statements. It is only kept for
+ *             the code built on it.
  */
+@Deprecated
 public final class TypedContentValues {
     enum ElementType {
         BOOLEAN, INTEGER, REAL, TEXT, BLOB
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.nonninz.robomodel.RoboModel;
+
+/**
+ * Tells {@link RoboModel} to store this String or JSON field as a deflate compressed BLOB when
+ * its text is at least {@link #threshold()} characters long. Shorter values, and the values
+ * stored before the field was compressed, stay TEXT and are read as they are. Compressed values
+ * can not be compared or searched in SQL.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD })
+public @interface Compressed {
+    /**
+     * The length of the text from which it is compressed
+     */
+    int threshold() default 256;
+}
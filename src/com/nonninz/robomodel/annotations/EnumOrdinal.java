@@ -0,0 +1,36 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.nonninz.robomodel.RoboModel;
+
+/**
+ * Tells {@link RoboModel} to store this enum field as the INTEGER {@link EnumCode} of its value
+ * instead of its name. Every constant of the enum must declare a different code: the model can
+ * not be saved or loaded otherwise, nor can a stored code no constant declares be loaded.
+ * Changing an existing field to or from code storage converts the values already stored the
+ * first time the table is used.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD })
+public @interface EnumOrdinal {
+
+}
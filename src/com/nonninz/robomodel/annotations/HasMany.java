@@ -0,0 +1,39 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.nonninz.robomodel.RoboManager;
+import com.nonninz.robomodel.RoboModel;
+
+/**
+ * Marks a {@code List} of {@link RoboModel} as the records of another table pointing to this
+ * model with a {@link BelongsTo} field. The list has no column: it is only filled when the
+ * relation is fetched with {@link RoboManager#include(String...)}, and saving the model does
+ * not save it.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD })
+public @interface HasMany {
+    /**
+     * The name of the {@link BelongsTo} field of the related model
+     */
+    String value();
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.nonninz.robomodel.RoboManager;
+import com.nonninz.robomodel.RoboModel;
+
+/**
+ * Tells {@link RoboModel} to not load this field with the rest of the model. It is read with
+ * {@link RoboModel#loadLazy(String...)}, or for many models at once with
+ * {@link RoboManager#loadLazy(java.util.Collection, String...)}. Until then, saving the model
+ * leaves the stored value untouched, unless the field was assigned another value.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD })
+public @interface Lazy {
+
+}
@@ -7,4 +7,8 @@ public class DatabaseNotUpToDateException extends Exception {
     public DatabaseNotUpToDateException(Throwable e) {
         super(e);
     }
+
+    public DatabaseNotUpToDateException(String msg) {
+        super(msg);
+    }
 }
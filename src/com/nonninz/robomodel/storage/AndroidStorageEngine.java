@@ -0,0 +1,196 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel.storage;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * The default engine: databases are opened with {@link Context#openOrCreateDatabase}.
+ */
+public class AndroidStorageEngine implements StorageEngine {
+
+    @Override
+    public StorageDatabase open(Context context, String databaseName) {
+        final SQLiteDatabase db = context.getApplicationContext().openOrCreateDatabase(
+                        databaseName, Context.MODE_PRIVATE, null);
+        return new AndroidDatabase(db);
+    }
+
+    static class AndroidDatabase implements StorageDatabase {
+        private final SQLiteDatabase mDatabase;
+        private SQLiteStatement mChanges;
+
+        AndroidDatabase(SQLiteDatabase database) {
+            mDatabase = database;
+        }
+
+        @Override
+        public Cursor query(String table, String[] columns, String selection,
+                        String[] selectionArgs, String groupBy, String having, String orderBy,
+                        String limit) {
+            return mDatabase.query(table, columns, selection, selectionArgs, groupBy, having,
+                            orderBy, limit);
+        }
+
+        @Override
+        public Cursor rawQuery(String sql, String[] selectionArgs) {
+            return mDatabase.rawQuery(sql, selectionArgs);
+        }
+
+        @Override
+        public StorageStatement compileStatement(String sql) {
+            return new AndroidStatement(this, mDatabase.compileStatement(sql));
+        }
+
+        @Override
+        public long insertOrThrow(String table, ContentValues values) {
+            return mDatabase.insertOrThrow(table, null, values);
+        }
+
+        @Override
+        public int update(String table, ContentValues values, String whereClause,
+                        String[] whereArgs) {
+            return mDatabase.update(table, values, whereClause, whereArgs);
+        }
+
+        @Override
+        public int delete(String table, String whereClause, String[] whereArgs) {
+            return mDatabase.delete(table, whereClause, whereArgs);
+        }
+
+        @Override
+        public void execSQL(String sql) {
+            mDatabase.execSQL(sql);
+        }
+
+        @Override
+        public void beginTransaction() {
+            mDatabase.beginTransaction();
+        }
+
+        @Override
+        public void setTransactionSuccessful() {
+            mDatabase.setTransactionSuccessful();
+        }
+
+        @Override
+        public void endTransaction() {
+            mDatabase.endTransaction();
+        }
+
+        @Override
+        public boolean inTransaction() {
+            return mDatabase.inTransaction();
+        }
+
+        /**
+         * SQLiteStatement.executeUpdateDelete() needs API 11: the statement is executed and the
+         * count read with changes(), in a transaction so that no other statement runs between
+         * them.
+         */
+        int executeUpdateDelete(SQLiteStatement statement) {
+            mDatabase.beginTransaction();
+            try {
+                statement.execute();
+                if (mChanges == null) {
+                    mChanges = mDatabase.compileStatement("SELECT changes()");
+                }
+                final int count = (int) mChanges.simpleQueryForLong();
+                mDatabase.setTransactionSuccessful();
+                return count;
+            } finally {
+                mDatabase.endTransaction();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (mChanges != null) {
+                mChanges.close();
+            }
+            mDatabase.close();
+        }
+    }
+
+    static class AndroidStatement implements StorageStatement {
+        private final AndroidDatabase mDatabase;
+        private final SQLiteStatement mStatement;
+
+        AndroidStatement(AndroidDatabase database, SQLiteStatement statement) {
+            mDatabase = database;
+            mStatement = statement;
+        }
+
+        @Override
+        public void bindNull(int index) {
+            mStatement.bindNull(index);
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            mStatement.bindLong(index, value);
+        }
+
+        @Override
+        public void bindDouble(int index, double value) {
+            mStatement.bindDouble(index, value);
+        }
+
+        @Override
+        public void bindString(int index, String value) {
+            mStatement.bindString(index, value);
+        }
+
+        @Override
+        public void bindBlob(int index, byte[] value) {
+            mStatement.bindBlob(index, value);
+        }
+
+        @Override
+        public void clearBindings() {
+            mStatement.clearBindings();
+        }
+
+        @Override
+        public void execute() {
+            mStatement.execute();
+        }
+
+        @Override
+        public long executeInsert() {
+            return mStatement.executeInsert();
+        }
+
+        @Override
+        public int executeUpdateDelete() {
+            return mDatabase.executeUpdateDelete(mStatement);
+        }
+
+        @Override
+        public long simpleQueryForLong() {
+            return mStatement.simpleQueryForLong();
+        }
+
+        @Override
+        public void close() {
+            mStatement.close();
+        }
+    }
+}
@@ -0,0 +1,470 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel.storage;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteException;
+
+/**
+ * An engine storing the databases through a SQLite JDBC driver, such as
+ * org.xerial:sqlite-jdbc, for running the models on a regular JVM. Databases are files named
+ * after the database in the given directory. The Android classes used by the models, such as
+ * Cursor and ContentValues, then come from the robomodel-jvm artifact built in the jvm
+ * directory: the ones of the SDK's android.jar are stubs.
+ * 
+ * Query results are read completely into a {@link MatrixCursor}, like a CursorWindow holding
+ * the whole result.
+ * 
+ * As with SQLiteDatabase, a transaction belongs to the thread that began it: the connection is
+ * locked by that thread until the transaction ends, and statements of other threads wait for
+ * it.
+ */
+public class JdbcStorageEngine implements StorageEngine {
+    private static final int SQLITE_CONSTRAINT = 19;
+
+    private final File mDirectory;
+
+    /**
+     * @param directory
+     *            where the database files are stored
+     */
+    public JdbcStorageEngine(File directory) {
+        mDirectory = directory;
+    }
+
+    @Override
+    public StorageDatabase open(Context context, String databaseName) {
+        final String url = "jdbc:sqlite:" + new File(mDirectory, databaseName).getPath();
+        try {
+            return new JdbcDatabase(DriverManager.getConnection(url));
+        } catch (final SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    static SQLiteException wrap(SQLException e) {
+        if (e.getErrorCode() == SQLITE_CONSTRAINT) {
+            final SQLiteConstraintException constraint = new SQLiteConstraintException(
+                            e.getMessage());
+            constraint.initCause(e);
+            return constraint;
+        }
+        final SQLiteException exception = new SQLiteException(e.getMessage());
+        exception.initCause(e);
+        return exception;
+    }
+
+    static class JdbcDatabase implements StorageDatabase {
+        private final Connection mConnection;
+        /** Held for each statement, and by the thread in a transaction until it ends */
+        private final ReentrantLock mLock = new ReentrantLock();
+        // Only accessed while holding mLock
+        private int mTransactionDepth;
+        private boolean mTransactionFailed;
+        private boolean mLevelSuccessful;
+
+        JdbcDatabase(Connection connection) {
+            mConnection = connection;
+        }
+
+        @Override
+        public Cursor query(String table, String[] columns, String selection,
+                        String[] selectionArgs, String groupBy, String having, String orderBy,
+                        String limit) {
+            final String sql = Sql.buildQuery(table, columns, selection, groupBy, having,
+                            orderBy, limit);
+            return rawQuery(sql, selectionArgs);
+        }
+
+        @Override
+        public Cursor rawQuery(String sql, String[] selectionArgs) {
+            mLock.lock();
+            try {
+                final PreparedStatement statement = mConnection.prepareStatement(sql);
+                try {
+                    if (selectionArgs != null) {
+                        for (int i = 0; i < selectionArgs.length; i++) {
+                            statement.setString(i + 1, selectionArgs[i]);
+                        }
+                    }
+                    final ResultSet result = statement.executeQuery();
+                    final ResultSetMetaData meta = result.getMetaData();
+                    final String[] columns = new String[meta.getColumnCount()];
+                    for (int i = 0; i < columns.length; i++) {
+                        columns[i] = meta.getColumnLabel(i + 1);
+                    }
+
+                    final MatrixCursor cursor = new MatrixCursor(columns);
+                    while (result.next()) {
+                        final Object[] row = new Object[columns.length];
+                        for (int i = 0; i < columns.length; i++) {
+                            row[i] = result.getObject(i + 1);
+                        }
+                        cursor.addRow(row);
+                    }
+                    result.close();
+                    return cursor;
+                } finally {
+                    statement.close();
+                }
+            } catch (final SQLException e) {
+                throw wrap(e);
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        @Override
+        public StorageStatement compileStatement(String sql) {
+            mLock.lock();
+            try {
+                return new JdbcStatement(this, mConnection.prepareStatement(sql));
+            } catch (final SQLException e) {
+                throw wrap(e);
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        @Override
+        public long insertOrThrow(String table, ContentValues values) {
+            final String[] columns = new String[values.size()];
+            final Object[] args = new Object[values.size()];
+            int i = 0;
+            for (final Map.Entry<String, Object> entry : values.valueSet()) {
+                columns[i] = entry.getKey();
+                args[i++] = entry.getValue();
+            }
+
+            final StorageStatement statement = compileStatement(Sql.buildInsert(table, columns));
+            try {
+                for (int c = 0; c < args.length; c++) {
+                    Sql.bind(statement, c + 1, args[c]);
+                }
+                return statement.executeInsert();
+            } finally {
+                statement.close();
+            }
+        }
+
+        @Override
+        public int update(String table, ContentValues values, String whereClause,
+                        String[] whereArgs) {
+            final String[] columns = new String[values.size()];
+            final Object[] args = new Object[values.size()];
+            int i = 0;
+            for (final Map.Entry<String, Object> entry : values.valueSet()) {
+                columns[i] = entry.getKey();
+                args[i++] = entry.getValue();
+            }
+
+            final StorageStatement statement = compileStatement(Sql.buildUpdate(table, columns,
+                            whereClause));
+            try {
+                for (int c = 0; c < args.length; c++) {
+                    Sql.bind(statement, c + 1, args[c]);
+                }
+                bindStrings(statement, args.length, whereArgs);
+                return statement.executeUpdateDelete();
+            } finally {
+                statement.close();
+            }
+        }
+
+        @Override
+        public int delete(String table, String whereClause, String[] whereArgs) {
+            final StorageStatement statement = compileStatement(Sql.buildDelete(table,
+                            whereClause));
+            try {
+                bindStrings(statement, 0, whereArgs);
+                return statement.executeUpdateDelete();
+            } finally {
+                statement.close();
+            }
+        }
+
+        private static void bindStrings(StorageStatement statement, int offset, String[] args) {
+            if (args != null) {
+                for (int i = 0; i < args.length; i++) {
+                    statement.bindString(offset + i + 1, args[i]);
+                }
+            }
+        }
+
+        @Override
+        public void execSQL(String sql) {
+            mLock.lock();
+            try {
+                final Statement statement = mConnection.createStatement();
+                try {
+                    statement.execute(sql);
+                } finally {
+                    statement.close();
+                }
+            } catch (final SQLException e) {
+                throw wrap(e);
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        void lock() {
+            mLock.lock();
+        }
+
+        void unlock() {
+            mLock.unlock();
+        }
+
+        /**
+         * Must be called holding the lock, together with the insert.
+         */
+        long lastInsertRowId() throws SQLException {
+            final Statement statement = mConnection.createStatement();
+            try {
+                final ResultSet result = statement.executeQuery("SELECT last_insert_rowid()");
+                result.next();
+                return result.getLong(1);
+            } finally {
+                statement.close();
+            }
+        }
+
+        @Override
+        public void beginTransaction() {
+            // The lock is kept until the matching endTransaction()
+            mLock.lock();
+            try {
+                if (mTransactionDepth == 0) {
+                    mConnection.setAutoCommit(false);
+                    mTransactionFailed = false;
+                }
+                mTransactionDepth++;
+                mLevelSuccessful = false;
+            } catch (final SQLException e) {
+                mLock.unlock();
+                throw wrap(e);
+            }
+        }
+
+        @Override
+        public void setTransactionSuccessful() {
+            checkTransaction();
+            mLevelSuccessful = true;
+        }
+
+        @Override
+        public void endTransaction() {
+            checkTransaction();
+            try {
+                mTransactionFailed |= !mLevelSuccessful;
+                // The enclosing level is successful only once it is marked itself
+                mLevelSuccessful = false;
+                mTransactionDepth--;
+
+                if (mTransactionDepth == 0) {
+                    try {
+                        if (mTransactionFailed) {
+                            mConnection.rollback();
+                        } else {
+                            mConnection.commit();
+                        }
+                        mConnection.setAutoCommit(true);
+                    } catch (final SQLException e) {
+                        throw wrap(e);
+                    }
+                }
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        private void checkTransaction() {
+            if (!inTransaction()) {
+                throw new IllegalStateException("No transaction in progress on this thread");
+            }
+        }
+
+        @Override
+        public boolean inTransaction() {
+            return mLock.isHeldByCurrentThread() && mTransactionDepth > 0;
+        }
+
+        @Override
+        public void close() {
+            mLock.lock();
+            try {
+                mConnection.close();
+            } catch (final SQLException e) {
+                throw wrap(e);
+            } finally {
+                mLock.unlock();
+            }
+        }
+    }
+
+    static class JdbcStatement implements StorageStatement {
+        private final JdbcDatabase mDatabase;
+        private final PreparedStatement mStatement;
+
+        JdbcStatement(JdbcDatabase database, PreparedStatement statement) {
+            mDatabase = database;
+            mStatement = statement;
+        }
+
+        @Override
+        public void bindNull(int index) {
+            try {
+                mStatement.setNull(index, Types.NULL);
+            } catch (final SQLException e) {
+                throw wrap(e);
+            }
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            try {
+                mStatement.setLong(index, value);
+            } catch (final SQLException e) {
+                throw wrap(e);
+            }
+        }
+
+        @Override
+        public void bindDouble(int index, double value) {
+            try {
+                mStatement.setDouble(index, value);
+            } catch (final SQLException e) {
+                throw wrap(e);
+            }
+        }
+
+        @Override
+        public void bindString(int index, String value) {
+            try {
+                mStatement.setString(index, value);
+            } catch (final SQLException e) {
+                throw wrap(e);
+            }
+        }
+
+        @Override
+        public void bindBlob(int index, byte[] value) {
+            try {
+                mStatement.setBytes(index, value);
+            } catch (final SQLException e) {
+                throw wrap(e);
+            }
+        }
+
+        @Override
+        public void clearBindings() {
+            try {
+                mStatement.clearParameters();
+            } catch (final SQLException e) {
+                throw wrap(e);
+            }
+        }
+
+        @Override
+        public void execute() {
+            mDatabase.lock();
+            try {
+                mStatement.execute();
+            } catch (final SQLException e) {
+                throw wrap(e);
+            } finally {
+                mDatabase.unlock();
+            }
+        }
+
+        @Override
+        public long executeInsert() {
+            mDatabase.lock();
+            try {
+                if (mStatement.executeUpdate() == 0) {
+                    return -1;
+                }
+                return mDatabase.lastInsertRowId();
+            } catch (final SQLException e) {
+                throw wrap(e);
+            } finally {
+                mDatabase.unlock();
+            }
+        }
+
+        @Override
+        public int executeUpdateDelete() {
+            mDatabase.lock();
+            try {
+                return mStatement.executeUpdate();
+            } catch (final SQLException e) {
+                throw wrap(e);
+            } finally {
+                mDatabase.unlock();
+            }
+        }
+
+        @Override
+        public long simpleQueryForLong() {
+            mDatabase.lock();
+            try {
+                final ResultSet result = mStatement.executeQuery();
+                try {
+                    if (!result.next()) {
+                        throw new SQLiteDoneException("No rows");
+                    }
+                    return result.getLong(1);
+                } finally {
+                    result.close();
+                }
+            } catch (final SQLException e) {
+                throw wrap(e);
+            } finally {
+                mDatabase.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            mDatabase.lock();
+            try {
+                mStatement.close();
+            } catch (final SQLException e) {
+                throw wrap(e);
+            } finally {
+                mDatabase.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel.storage;
+
+/**
+ * Builds SQL statements for the storage engines.
+ */
+public final class Sql {
+
+    private Sql() {
+    }
+
+    public static String buildQuery(String table, String[] columns, String selection,
+                    String groupBy, String having, String orderBy, String limit) {
+        final StringBuilder sql = new StringBuilder("SELECT ");
+        if (columns != null && columns.length > 0) {
+            appendList(sql, columns);
+        } else {
+            sql.append("*");
+        }
+        sql.append(" FROM ").append(table);
+        appendClause(sql, " WHERE ", selection);
+        appendClause(sql, " GROUP BY ", groupBy);
+        appendClause(sql, " HAVING ", having);
+        appendClause(sql, " ORDER BY ", orderBy);
+        appendClause(sql, " LIMIT ", limit);
+        return sql.toString();
+    }
+
+    public static String buildInsert(String table, String[] columns) {
+        final StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        appendList(sql, columns);
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ", ?" : "?");
+        }
+        return sql.append(")").toString();
+    }
+
+    public static String buildUpdate(String table, String[] columns, String whereClause) {
+        final StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ", " : "").append(columns[i]).append(" = ?");
+        }
+        appendClause(sql, " WHERE ", whereClause);
+        return sql.toString();
+    }
+
+    public static String buildDelete(String table, String whereClause) {
+        final StringBuilder sql = new StringBuilder("DELETE FROM ").append(table);
+        appendClause(sql, " WHERE ", whereClause);
+        return sql.toString();
+    }
+
+    private static void appendList(StringBuilder sql, String[] items) {
+        for (int i = 0; i < items.length; i++) {
+            sql.append(i > 0 ? ", " : "").append(items[i]);
+        }
+    }
+
+    private static void appendClause(StringBuilder sql, String name, String clause) {
+        if (clause != null && clause.length() > 0) {
+            sql.append(name).append(clause);
+        }
+    }
+
+    /**
+     * Binds a value of any of the types stored in ContentValues.
+     */
+    public static void bind(StorageStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+}
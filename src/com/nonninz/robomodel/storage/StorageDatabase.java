@@ -0,0 +1,66 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel.storage;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+/**
+ * An open SQLite database. The methods behave like the ones of
+ * {@link android.database.sqlite.SQLiteDatabase} with the same name, and errors are reported
+ * with {@link android.database.sqlite.SQLiteException} and its subclasses.
+ */
+public interface StorageDatabase {
+
+    Cursor query(String table, String[] columns, String selection, String[] selectionArgs,
+                    String groupBy, String having, String orderBy, String limit);
+
+    Cursor rawQuery(String sql, String[] selectionArgs);
+
+    StorageStatement compileStatement(String sql);
+
+    /**
+     * @return the id of the inserted row
+     */
+    long insertOrThrow(String table, ContentValues values);
+
+    /**
+     * @return the number of updated rows
+     */
+    int update(String table, ContentValues values, String whereClause, String[] whereArgs);
+
+    /**
+     * @return the number of deleted rows. Pass "1" as whereClause to delete all rows and get
+     *         the count.
+     */
+    int delete(String table, String whereClause, String[] whereArgs);
+
+    void execSQL(String sql);
+
+    /**
+     * Begins a transaction. Transactions can be nested: the changes are committed when the
+     * outermost transaction ends, only if every level was marked successful.
+     */
+    void beginTransaction();
+
+    void setTransactionSuccessful();
+
+    void endTransaction();
+
+    boolean inTransaction();
+
+    void close();
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel.storage;
+
+import android.content.Context;
+
+/**
+ * Opens the databases where RoboModel stores its tables. {@link AndroidStorageEngine} is used
+ * unless another engine is set with
+ * {@link com.nonninz.robomodel.RoboManager#setStorageEngine(StorageEngine)}.
+ * 
+ * The SPI uses the Android data types of the model API: on a JVM they are provided by the
+ * robomodel-jvm artifact, see {@link JdbcStorageEngine}.
+ */
+public interface StorageEngine {
+
+    /**
+     * Opens the database, creating it if it does not exist.
+     * 
+     * @param context
+     *            the context of the model asking for it
+     * @param databaseName
+     *            the name of the database
+     * @throws android.database.sqlite.SQLiteException
+     *             if the database can not be opened
+     */
+    StorageDatabase open(Context context, String databaseName);
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.nonninz.robomodel.annotations.EnumCode;
+
+/**
+ * The constants of enum types, by name and by {@link EnumCode}. They are looked up once per
+ * type, so converting a value does not use reflection.
+ */
+public class EnumCache {
+    private static final Map<Class<?>, Constants> sConstants =
+                    new ConcurrentHashMap<Class<?>, Constants>();
+    private static final Map<Class<?>, Codes> sCodes = new ConcurrentHashMap<Class<?>, Codes>();
+
+    private static class Constants {
+        final Object[] mByOrdinal;
+        final Map<String, Object> mByName;
+
+        Constants(Class<?> type) {
+            mByOrdinal = type.getEnumConstants();
+            mByName = new HashMap<String, Object>(mByOrdinal.length * 2);
+            for (final Object constant : mByOrdinal) {
+                mByName.put(((Enum<?>) constant).name(), constant);
+            }
+        }
+    }
+
+    /**
+     * Built only for the enums stored by code, the others need not declare any
+     */
+    private static class Codes {
+        final int[] mByOrdinal;
+        final Map<Integer, Object> mByCode;
+
+        Codes(Class<?> type) {
+            final Object[] constants = type.getEnumConstants();
+            mByOrdinal = new int[constants.length];
+            mByCode = new HashMap<Integer, Object>(constants.length * 2);
+            for (int i = 0; i < constants.length; i++) {
+                final String name = ((Enum<?>) constants[i]).name();
+                final EnumCode code;
+                try {
+                    code = type.getField(name).getAnnotation(EnumCode.class);
+                } catch (final NoSuchFieldException e) {
+                    // Every constant is a public field
+                    throw new RuntimeException(e);
+                }
+                if (code == null) {
+                    final String msg = String.format("Enum constant %s.%s declares no code",
+                                    type.getName(), name);
+                    throw new IllegalArgumentException(msg);
+                }
+                final Object previous = mByCode.put(code.value(), constants[i]);
+                if (previous != null) {
+                    final String msg = String.format("Enum constants %s.%s and %s have the "
+                                    + "same code %d", type.getName(), previous, name,
+                                    code.value());
+                    throw new IllegalArgumentException(msg);
+                }
+                mByOrdinal[i] = code.value();
+            }
+        }
+    }
+
+    private EnumCache() {
+    }
+
+    private static Constants get(Class<?> type) {
+        Constants constants = sConstants.get(type);
+        if (constants == null) {
+            // Racing threads build equal tables: keeping either is fine
+            constants = new Constants(type);
+            sConstants.put(type, constants);
+        }
+        return constants;
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the type has no constant with the given name
+     */
+    public static Object valueOf(Class<?> type, String name) {
+        final Object constant = get(type).mByName.get(name);
+        if (constant == null) {
+            final String msg = String.format("No enum constant %s.%s", type.getName(), name);
+            throw new IllegalArgumentException(msg);
+        }
+        return constant;
+    }
+
+    private static Codes getCodes(Class<?> type) {
+        Codes codes = sCodes.get(type);
+        if (codes == null) {
+            codes = new Codes(type);
+            sCodes.put(type, codes);
+        }
+        return codes;
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the constants of its type do not all declare a different {@link EnumCode}
+     */
+    public static int codeOf(Enum<?> constant) {
+        return getCodes(constant.getDeclaringClass()).mByOrdinal[constant.ordinal()];
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the type has no constant with the given code, or its constants do not all
+     *             declare a different {@link EnumCode}
+     */
+    public static Object fromCode(Class<?> type, int code) {
+        final Object constant = getCodes(type).mByCode.get(code);
+        if (constant == null) {
+            final String msg = String.format("No enum constant of %s with code %d",
+                            type.getName(), code);
+            throw new IllegalArgumentException(msg);
+        }
+        return constant;
+    }
+}
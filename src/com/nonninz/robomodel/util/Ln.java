@@ -41,6 +41,11 @@ public class Ln {
         Log.v("RoboModel", str);
     }
 
+    public static void w(String message, Object... args) {
+        final String str = String.format(message, args);
+        Log.w("RoboModel", str);
+    }
+
     public static void w(Throwable t, String message, Object... args) {
         final String str = String.format(message, args);
         Log.w("RoboModel", str, t);
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2012 Francesco Donadon
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nonninz.robomodel.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Packed binary encoding of arrays of numbers. The first byte tells how the rest is encoded:
+ * - FIXED: the values as little-endian ints, longs or doubles, decoded with one bulk read
+ * - DELTA: the differences between consecutive integers as zigzag varints. It is used instead
+ * when it is smaller, as for sorted ids.
+ */
+public class PackedArrays {
+    private static final byte FIXED = 0;
+    private static final byte DELTA = 1;
+
+    public static byte[] pack(int[] values) {
+        final long[] longs = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            longs[i] = values[i];
+        }
+        final int deltaSize = getDeltaSize(longs);
+        if (deltaSize < values.length * 4) {
+            return packDelta(longs, deltaSize);
+        }
+        final ByteBuffer buffer = allocate(values.length * 4);
+        buffer.asIntBuffer().put(values);
+        return buffer.array();
+    }
+
+    public static byte[] pack(long[] values) {
+        final int deltaSize = getDeltaSize(values);
+        if (deltaSize < values.length * 8) {
+            return packDelta(values, deltaSize);
+        }
+        final ByteBuffer buffer = allocate(values.length * 8);
+        buffer.asLongBuffer().put(values);
+        return buffer.array();
+    }
+
+    public static byte[] pack(double[] values) {
+        final ByteBuffer buffer = allocate(values.length * 8);
+        buffer.asDoubleBuffer().put(values);
+        return buffer.array();
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the data was not packed from ints
+     */
+    public static int[] unpackInts(byte[] data) {
+        if (getEncoding(data) == DELTA) {
+            final long[] longs = unpackDelta(data);
+            final int[] values = new int[longs.length];
+            for (int i = 0; i < longs.length; i++) {
+                values[i] = (int) longs[i];
+            }
+            return values;
+        }
+        final int[] values = new int[getCount(data, 4)];
+        wrap(data).asIntBuffer().get(values);
+        return values;
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the data was not packed from longs
+     */
+    public static long[] unpackLongs(byte[] data) {
+        if (getEncoding(data) == DELTA) {
+            return unpackDelta(data);
+        }
+        final long[] values = new long[getCount(data, 8)];
+        wrap(data).asLongBuffer().get(values);
+        return values;
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the data was not packed from doubles
+     */
+    public static double[] unpackDoubles(byte[] data) {
+        if (getEncoding(data) != FIXED) {
+            throw new IllegalArgumentException("Data not packed from doubles");
+        }
+        final double[] values = new double[getCount(data, 8)];
+        wrap(data).asDoubleBuffer().get(values);
+        return values;
+    }
+
+    private static ByteBuffer allocate(int size) {
+        final ByteBuffer buffer = ByteBuffer.allocate(size + 1).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(FIXED);
+        return buffer;
+    }
+
+    private static ByteBuffer wrap(byte[] data) {
+        return ByteBuffer.wrap(data, 1, data.length - 1).slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static byte getEncoding(byte[] data) {
+        if (data.length == 0 || (data[0] != FIXED && data[0] != DELTA)) {
+            throw new IllegalArgumentException("Not a packed array");
+        }
+        return data[0];
+    }
+
+    private static int getCount(byte[] data, int width) {
+        if ((data.length - 1) % width != 0) {
+            throw new IllegalArgumentException("Truncated packed array");
+        }
+        return (data.length - 1) / width;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int getDeltaSize(long[] values) {
+        int size = 0;
+        long previous = 0;
+        for (final long value : values) {
+            long zigzag = zigzag(value - previous);
+            do {
+                size++;
+                zigzag >>>= 7;
+            } while (zigzag != 0);
+            previous = value;
+        }
+        return size;
+    }
+
+    private static byte[] packDelta(long[] values, int size) {
+        final byte[] data = new byte[size + 1];
+        data[0] = DELTA;
+        int offset = 1;
+        long previous = 0;
+        for (final long value : values) {
+            long zigzag = zigzag(value - previous);
+            while ((zigzag & ~0x7FL) != 0) {
+                data[offset++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            data[offset++] = (byte) zigzag;
+            previous = value;
+        }
+        return data;
+    }
+
+    private static long[] unpackDelta(byte[] data) {
+        // Every varint ends with the only one of its bytes without the high bit
+        int count = 0;
+        for (int i = 1; i < data.length; i++) {
+            if (data[i] >= 0) {
+                count++;
+            }
+        }
+        if (data.length > 1 && data[data.length - 1] < 0) {
+            throw new IllegalArgumentException("Truncated packed array");
+        }
+
+        final long[] values = new long[count];
+        long previous = 0;
+        int offset = 1;
+        for (int i = 0; i < count; i++) {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            values[i] = previous;
+        }
+        return values;
+    }
+}
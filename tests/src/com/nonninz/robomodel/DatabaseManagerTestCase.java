@@ -5,9 +5,10 @@ import java.util.ArrayList;
 import java.util.List;
 
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
 
+import com.nonninz.robomodel.storage.StorageDatabase;
+
 public class DatabaseManagerTestCase extends AndroidTestCase {
 
     private final String TEST_DB_NAME = "DatabaseManagerTestCaseDB";
@@ -33,7 +34,7 @@ public class DatabaseManagerTestCase extends AndroidTestCase {
         fields.add(model.getClass().getDeclaredField("bowlFish"));
         fields.add(model.getClass().getDeclaredField("parent"));
 
-        SQLiteDatabase db = mDatabaseManager.openOrCreateDatabase(TEST_DB_NAME);
+        StorageDatabase db = mDatabaseManager.openOrCreateDatabase(TEST_DB_NAME);
         mDatabaseManager.createOrPopulateTable("Test", fields, db);
 
         // There should be a table "Test", created with correct SQL 
@@ -73,8 +74,102 @@ public class DatabaseManagerTestCase extends AndroidTestCase {
                         "doubleField REAL)", sql);
     }
 
+    public void testCreateOrPopulateTableConvertsTypes() throws NoSuchFieldException {
+        StorageDatabase db = mDatabaseManager.openOrCreateDatabase(TEST_DB_NAME);
+        db.execSQL("CREATE TABLE Test (springField TEXT, bowlFish TEXT, doubleField TEXT, "
+                        + "removed TEXT, _id integer primary key autoincrement)");
+        db.execSQL("INSERT INTO Test (springField, bowlFish, doubleField, removed) "
+                        + "VALUES ('Test1', 'true', '2.5', 'x')");
+
+        List<Field> fields = new ArrayList<Field>();
+        fields.add(TestModel.class.getDeclaredField("springField"));
+        fields.add(TestModel.class.getDeclaredField("bowlFish"));
+        fields.add(TestModel.class.getDeclaredField("doubleField"));
+        mDatabaseManager.createOrPopulateTable("Test", fields, db);
+
+        // The table is rebuilt without the removed column, keeping ids and converting values
+        Cursor cursor = db.rawQuery("SELECT * FROM Test", null);
+        assertEquals(4, cursor.getColumnCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(1, cursor.getLong(cursor.getColumnIndex("_id")));
+        assertEquals("Test1", cursor.getString(cursor.getColumnIndex("springField")));
+        assertEquals(1, cursor.getInt(cursor.getColumnIndex("bowlFish")));
+        assertEquals(2.5, cursor.getDouble(cursor.getColumnIndex("doubleField")));
+        cursor.close();
+
+        assertEquals(1, mDatabaseManager.getSchemaVersion(TEST_DB_NAME, "Test"));
+    }
+
+    public void testCreateOrPopulateTableKeepsSequence() throws NoSuchFieldException {
+        StorageDatabase db = mDatabaseManager.openOrCreateDatabase(TEST_DB_NAME);
+        db.execSQL("CREATE TABLE Test (springField TEXT, removed TEXT, "
+                        + "_id integer primary key autoincrement)");
+        db.execSQL("INSERT INTO Test (springField) VALUES ('Test1')");
+        db.execSQL("INSERT INTO Test (springField) VALUES ('Test2')");
+        db.execSQL("DELETE FROM Test WHERE _id = 2");
+
+        List<Field> fields = new ArrayList<Field>();
+        fields.add(TestModel.class.getDeclaredField("springField"));
+        mDatabaseManager.createOrPopulateTable("Test", fields, db);
+
+        // The id of the deleted record is not given again
+        db.execSQL("INSERT INTO Test (springField) VALUES ('Test3')");
+        Cursor cursor = db.rawQuery("SELECT MAX(_id) FROM Test", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(3, cursor.getLong(0));
+        cursor.close();
+    }
+
+    public void testInsertOrUpdateColumnValues() {
+        StorageDatabase db = mDatabaseManager.openOrCreateDatabase(TEST_DB_NAME);
+        db.execSQL("CREATE TABLE Test (springField TEXT, bowlFish BOOLEAN, doubleField REAL, "
+                        + "_id integer primary key autoincrement)");
+
+        ColumnValues values = new ColumnValues(new ColumnValues.Layout("Test", new String[] {
+                        "springField", "bowlFish", "doubleField" }));
+        values.putString(0, "Test1");
+        values.putLong(1, 1);
+        values.putDouble(2, 2.5);
+        long id = mDatabaseManager.insertOrUpdate("Test", values, RoboModel.UNSAVED_MODEL_ID, db);
+
+        // Only the columns with a value are updated
+        values.clear();
+        values.putString(0, "Test2");
+        assertEquals(id, mDatabaseManager.insertOrUpdate("Test", values, id, db));
+
+        Cursor cursor = db.rawQuery("SELECT * FROM Test", null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Test2", cursor.getString(cursor.getColumnIndex("springField")));
+        assertEquals(1, cursor.getInt(cursor.getColumnIndex("bowlFish")));
+        assertEquals(2.5, cursor.getDouble(cursor.getColumnIndex("doubleField")));
+        cursor.close();
+    }
+
+    public void testInsertOrUpdateAfterDropTable() {
+        StorageDatabase db = mDatabaseManager.openOrCreateDatabase(TEST_DB_NAME);
+        db.execSQL("CREATE TABLE Test (springField TEXT, _id integer primary key autoincrement)");
+        ColumnValues values = new ColumnValues(new ColumnValues.Layout("Test",
+                        new String[] { "springField" }));
+        values.putString(0, "Test1");
+        mDatabaseManager.insertOrUpdate("Test", values, RoboModel.UNSAVED_MODEL_ID, db);
+
+        // The cached statement of the dropped table is not used for the new one
+        mDatabaseManager.dropTable("Test", db);
+        db.execSQL("CREATE TABLE Test (other TEXT, springField TEXT, "
+                        + "_id integer primary key autoincrement)");
+        long id = mDatabaseManager.insertOrUpdate("Test", values, RoboModel.UNSAVED_MODEL_ID, db);
+
+        Cursor cursor = db.rawQuery("SELECT * FROM Test", null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(id, cursor.getLong(cursor.getColumnIndex("_id")));
+        assertEquals("Test1", cursor.getString(cursor.getColumnIndex("springField")));
+        cursor.close();
+    }
+
     public void testDeleteAll() throws SecurityException, NoSuchFieldException {
-        SQLiteDatabase db = mDatabaseManager.openOrCreateDatabase(TEST_DB_NAME);
+        StorageDatabase db = mDatabaseManager.openOrCreateDatabase(TEST_DB_NAME);
         db.execSQL("CREATE TABLE Test (springField TEXT, _id integer primary key autoincrement)");
         db.execSQL("INSERT INTO Test (springField) VALUES ('Test1')");
         db.execSQL("INSERT INTO Test (springField) VALUES ('Test2')");
@@ -90,7 +185,7 @@ public class DatabaseManagerTestCase extends AndroidTestCase {
     }
 
     public void testDeleteRecord() {
-        SQLiteDatabase db = mDatabaseManager.openOrCreateDatabase(TEST_DB_NAME);
+        StorageDatabase db = mDatabaseManager.openOrCreateDatabase(TEST_DB_NAME);
         db.execSQL("CREATE TABLE Test (springField TEXT, _id integer primary key autoincrement)");
         db.execSQL("INSERT INTO Test (springField) VALUES ('Test1')");
         db.execSQL("INSERT INTO Test (springField) VALUES ('Test2')");
@@ -0,0 +1,80 @@
+package com.nonninz.robomodel;
+
+import java.util.List;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.nonninz.robomodel.annotations.FullText;
+
+public class FullTextTestCase extends AndroidTestCase {
+    public static class Note extends RoboModel {
+        @FullText public String title = "";
+        @FullText public String body = "";
+    }
+
+    private RoboManager<Note> mManager;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mManager = RoboManager.get(getContext(), Note.class);
+        getContext().deleteDatabase(mManager.getDatabaseName());
+    }
+
+    private Note save(String title, String body) {
+        Note note = mManager.create();
+        note.title = title;
+        note.body = body;
+        note.save();
+        return note;
+    }
+
+    public void testSearchIsRanked() {
+        Note few = save("Fish", "So long and thanks for all the fish");
+        Note many = save("Fish fish", "Fish, fish and more fish");
+        save("Towel", "Always know where your towel is");
+
+        List<Note> result = mManager.search("fish");
+        assertEquals(2, result.size());
+        assertEquals(many.getId(), result.get(0).getId());
+        assertEquals(few.getId(), result.get(1).getId());
+    }
+
+    public void testIndexFollowsWrites() {
+        Note note = save("Towel", "Always know where your towel is");
+        assertEquals(0, mManager.searchIds("fish", -1).length);
+
+        note.body = "A fish in your ear";
+        note.save();
+        assertEquals(1, mManager.searchIds("fish", -1).length);
+
+        mManager.deleteWhere("title = 'Towel'");
+        assertEquals(0, mManager.searchIds("fish", -1).length);
+    }
+
+    public void testIndexFollowsChangedColumns() {
+        save("Towel", "Always know where your towel is");
+
+        // An index and triggers left by a version indexing only the title
+        new DatabaseManager(getContext()).closeDatabase();
+        final SQLiteDatabase db = getContext().openOrCreateDatabase(mManager.getDatabaseName(),
+                        Context.MODE_PRIVATE, null);
+        db.execSQL("DROP TABLE Note_fts");
+        db.execSQL("DROP TRIGGER Note_fts_insert");
+        db.execSQL("DROP TRIGGER Note_fts_update");
+        db.execSQL("CREATE VIRTUAL TABLE Note_fts USING fts3 (title)");
+        db.execSQL("INSERT INTO Note_fts (docid, title) SELECT _id, title FROM Note");
+        db.execSQL("CREATE TRIGGER Note_fts_insert AFTER INSERT ON Note BEGIN "
+                        + "INSERT INTO Note_fts (docid, title) VALUES (new._id, new.title); END");
+        db.execSQL("CREATE TRIGGER Note_fts_update AFTER UPDATE ON Note BEGIN "
+                        + "INSERT INTO Note_fts (docid, title) VALUES (new._id, new.title); END");
+        db.close();
+
+        save("Fish", "So long and thanks for all the fish");
+        assertEquals(1, mManager.searchIds("thanks", -1).length);
+        assertEquals(1, mManager.searchIds("towel", -1).length);
+    }
+}
@@ -0,0 +1,90 @@
+package com.nonninz.robomodel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.test.AndroidTestCase;
+
+import com.nonninz.robomodel.annotations.InMemory;
+import com.nonninz.robomodel.exceptions.InstanceNotFoundException;
+
+public class InMemoryTestCase extends AndroidTestCase {
+    @InMemory
+    public static class SessionModel extends RoboModel {
+        public String token = "token";
+        public long expiresAt = 42;
+    }
+
+    private RoboManager<SessionModel> mManager;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mManager = RoboManager.get(getContext(), SessionModel.class);
+        mManager.deleteAll();
+    }
+
+    public void testSaveAndFind() throws InstanceNotFoundException {
+        SessionModel model = mManager.create();
+        model.token = "Hello there!";
+        model.save();
+        mManager.create().save();
+
+        assertEquals(2, mManager.count());
+        assertEquals("Hello there!", mManager.find(model.getId()).token);
+        assertEquals(1, mManager.where("token = ?", new String[] { "token" }).size());
+    }
+
+    public void testTableIsNotOnDisk() {
+        mManager.create().save();
+
+        DatabaseManager databaseManager = new DatabaseManager(getContext());
+        Cursor cursor = databaseManager.openOrCreateDatabase(mManager.getDatabaseName())
+                        .rawQuery("SELECT name FROM sqlite_master WHERE name = 'SessionModel'",
+                                        null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testRecordsAreLostWithTheConnection() {
+        mManager.create().save();
+        new DatabaseManager(getContext()).closeDatabase();
+
+        assertEquals(0, mManager.count());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testFailedInitializeRepairsTableOnFirstUse() {
+        mManager.dropTable();
+        RoboManager.get(getContext(), TestModel.class).dropTable();
+
+        final List<String> repairs = new ArrayList<String>();
+        RoboMetrics.install(new RoboMetrics() {
+            @Override
+            public void onSchemaRepair(String tableName) {
+                repairs.add(tableName);
+                if (tableName.equals("TestModel")) {
+                    throw new SQLException("Failed on purpose");
+                }
+            }
+        });
+        try {
+            // The temporary table created before the failure is rolled back
+            RoboModel.initialize(getContext(), Arrays.<Class<? extends RoboModel>> asList(
+                            SessionModel.class, TestModel.class));
+            // Opened without a failing statement to fall back on
+            Cursor cursor = new DatabaseManager(getContext()).openTable(mManager.create())
+                            .rawQuery("SELECT * FROM temp.SessionModel", null);
+            assertEquals(0, cursor.getCount());
+            cursor.close();
+        } finally {
+            RoboMetrics.install(null);
+        }
+
+        assertEquals(Arrays.asList("SessionModel", "TestModel", "SessionModel"), repairs);
+    }
+}
@@ -0,0 +1,109 @@
+package com.nonninz.robomodel;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import android.test.AndroidTestCase;
+
+import com.nonninz.robomodel.RelationsTestCase.LineItem;
+import com.nonninz.robomodel.RelationsTestCase.Purchase;
+
+public class LiveQueryTestCase extends AndroidTestCase {
+    private RoboManager<TestModel> mManager;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mManager = RoboManager.get(getContext(), TestModel.class);
+        getContext().deleteDatabase(mManager.getDatabaseName());
+    }
+
+    private List<TestModel> models(long... ids) {
+        List<TestModel> result = new ArrayList<TestModel>();
+        for (long id : ids) {
+            TestModel model = mManager.create();
+            model.mId = id;
+            result.add(model);
+        }
+        return result;
+    }
+
+    public void testDiff() throws NoSuchFieldException {
+        List<TestModel> previous = models(1, 2, 3, 4, 5);
+        List<TestModel> current = models(2, 3, 1, 5, 6);
+        current.get(3).springField = "Changed";
+
+        ResultDiff diff = ResultDiff.compute(previous, current, mManager.create()
+                        .getSavedFields(), Collections.<Field> emptyList());
+        assertTrue(Arrays.equals(new int[] { 3 }, diff.getRemoved()));
+        assertTrue(Arrays.equals(new int[] { 4 }, diff.getInserted()));
+        assertTrue(Arrays.equals(new int[] { 0 }, diff.getMovedFrom()));
+        assertTrue(Arrays.equals(new int[] { 2 }, diff.getMovedTo()));
+        assertTrue(Arrays.equals(new int[] { 3 }, diff.getChanged()));
+    }
+
+    public void testObserve() throws InterruptedException {
+        final BlockingQueue<ResultDiff> diffs = new LinkedBlockingQueue<ResultDiff>();
+        LiveQuery<TestModel> liveQuery = mManager.observe("intField < 100",
+                        new LiveQuery.Observer<TestModel>() {
+                            @Override
+                            public void onChanged(List<TestModel> result, ResultDiff diff) {
+                                diffs.add(diff);
+                            }
+                        });
+        try {
+            assertTrue(diffs.poll(1, TimeUnit.SECONDS).isEmpty());
+
+            TestModel model = mManager.create();
+            model.intField = 42;
+            model.save();
+            assertTrue(Arrays.equals(new int[] { 0 }, diffs.poll(1, TimeUnit.SECONDS)
+                            .getInserted()));
+
+            model.intField = 4242;
+            model.save();
+            assertTrue(Arrays.equals(new int[] { 0 }, diffs.poll(1, TimeUnit.SECONDS)
+                            .getRemoved()));
+            assertEquals(0, liveQuery.getResult().size());
+        } finally {
+            liveQuery.close();
+        }
+    }
+
+    public void testObserveIncludedRelation() throws InterruptedException {
+        RoboManager<Purchase> purchases = RoboManager.get(getContext(), Purchase.class);
+        RoboManager<LineItem> lineItems = RoboManager.get(getContext(), LineItem.class);
+        Purchase purchase = purchases.create();
+        purchase.save();
+        LineItem item = lineItems.create();
+        item.purchase = purchase;
+        item.save();
+
+        final BlockingQueue<ResultDiff> diffs = new LinkedBlockingQueue<ResultDiff>();
+        LiveQuery<Purchase> liveQuery = purchases.include("lineItems").observe(
+                        new LiveQuery.Observer<Purchase>() {
+                            @Override
+                            public void onChanged(List<Purchase> result, ResultDiff diff) {
+                                diffs.add(diff);
+                            }
+                        });
+        try {
+            assertNotNull(diffs.poll(1, TimeUnit.SECONDS));
+
+            item.quantity = 42;
+            item.save();
+            assertTrue(Arrays.equals(new int[] { 0 }, diffs.poll(1, TimeUnit.SECONDS)
+                            .getChanged()));
+            assertEquals(42, liveQuery.getResult().get(0).lineItems.get(0).quantity);
+        } finally {
+            liveQuery.close();
+        }
+    }
+}
@@ -1,12 +1,21 @@
 package com.nonninz.robomodel;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import android.test.AndroidTestCase;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.nonninz.robomodel.exceptions.InstanceNotFoundException;
+import com.nonninz.robomodel.storage.StorageDatabase;
 import com.nonninz.robomodel.RoboManager;
 import com.nonninz.robomodel.TestModel.Answer;
 
@@ -161,4 +170,365 @@ public class ManagerTestCase extends AndroidTestCase {
         assertEquals(expected.springField, actual.springField);
     }
 
+    public void testExportJson() throws IOException {
+        mManager.create().save();
+        final TestModel model = mManager.create();
+        model.springField = "Tapioca";
+        model.save();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final int count = mManager.exportJson(out, "springField = ?", new String[] { "Tapioca" },
+                        null);
+        assertEquals(1, count);
+
+        final String json = out.toString("UTF-8");
+        assertTrue(json.startsWith("[{"));
+        assertTrue(json.contains("\"springField\":\"Tapioca\""));
+        assertTrue(json.contains("\"enumTwo\":\"UNIVERSE\""));
+    }
+
+    public void testExportJsonOnEmptyState() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(0, mManager.exportJson(out));
+        assertEquals("[]", out.toString("UTF-8"));
+    }
+
+    public void testDeleteWhere() {
+        mManager.create().save();
+        mManager.create().save();
+        final TestModel model = mManager.create();
+        model.springField = "Tapioca";
+        model.save();
+
+        assertEquals(2, mManager.deleteWhere("springField != ?", new String[] { "Tapioca" }));
+        assertEquals(1, mManager.count());
+        assertEquals(1, mManager.deleteWhere(null));
+        assertEquals(0, mManager.count());
+    }
+
+    public void testDeleteCollection() {
+        final List<TestModel> models = new ArrayList<TestModel>();
+        for (int i = 0; i < DatabaseManager.BULK_CHUNK_SIZE + 10; i++) {
+            final TestModel model = mManager.create();
+            model.save();
+            models.add(model);
+        }
+        mManager.create().save();
+
+        assertEquals(models.size(), mManager.delete(models));
+        assertEquals(1, mManager.count());
+    }
+
+    public void testUpdateWhere() {
+        mManager.create().save();
+        final TestModel model = mManager.create();
+        model.springField = "Tapioca";
+        model.save();
+
+        final Map<String, Object> values = new HashMap<String, Object>();
+        values.put("intField", 7);
+        values.put("enumOne", Answer.EVERYTHING);
+        assertEquals(1, mManager.updateWhere(values, "springField = 'Tapioca'"));
+
+        final List<TestModel> found = mManager.where("intField = 7");
+        assertEquals(1, found.size());
+        assertEquals(Answer.EVERYTHING, found.get(0).enumOne);
+    }
+
+    public void testUpsertReplace() throws InstanceNotFoundException {
+        final TestModel model = mManager.create();
+        model.longField = 1001;
+        model.springField = "Tapioca";
+        mManager.upsert(model, "longField");
+        final long id = model.getId();
+
+        final TestModel update = mManager.create();
+        update.longField = 1001;
+        update.springField = "Antani";
+        mManager.upsert(update, "longField");
+
+        assertEquals(id, update.getId());
+        assertEquals(1, mManager.count());
+        assertEquals("Antani", mManager.find(id).springField);
+    }
+
+    public void testUpsertIgnore() throws InstanceNotFoundException {
+        final TestModel model = mManager.create();
+        model.longField = 1001;
+        model.springField = "Tapioca";
+        model.save();
+
+        final TestModel update = mManager.create();
+        update.longField = 1001;
+        update.springField = "Antani";
+        mManager.upsert(update, "longField", ConflictStrategy.IGNORE);
+
+        assertEquals(model.getId(), update.getId());
+        assertEquals("Tapioca", mManager.find(model.getId()).springField);
+    }
+
+    public void testUpsertMergeNonNull() throws InstanceNotFoundException {
+        final TestModel model = mManager.create();
+        model.longField = 1001;
+        model.springField = "Tapioca";
+        model.save();
+
+        final TestModel update = mManager.create();
+        update.longField = 1001;
+        update.springField = null;
+        update.intField = 7;
+        mManager.upsert(update, "longField", ConflictStrategy.MERGE_NON_NULL);
+
+        final TestModel found = mManager.find(model.getId());
+        assertEquals("Tapioca", found.springField);
+        assertEquals(7, found.intField);
+    }
+
+    public void testChangesAreCoalescedInTransaction() throws InterruptedException {
+        final BlockingQueue<ChangeEvent> events = new LinkedBlockingQueue<ChangeEvent>();
+        ChangeListener listener = new ChangeListener() {
+            @Override
+            public void onChange(ChangeEvent event) {
+                events.add(event);
+            }
+        };
+        mManager.addChangeListener(listener);
+        try {
+            mManager.runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100; i++) {
+                        mManager.create().save();
+                    }
+                }
+            });
+
+            ChangeEvent event = events.poll(1, TimeUnit.SECONDS);
+            assertEquals(100, event.getIds().size());
+            assertFalse(event.isWholeTable());
+            assertNull(events.poll(200, TimeUnit.MILLISECONDS));
+
+            mManager.deleteAll();
+            assertTrue(events.poll(1, TimeUnit.SECONDS).isWholeTable());
+        } finally {
+            mManager.removeChangeListener(listener);
+        }
+    }
+
+    public void testRolledBackChangesAreNotNotified() throws InterruptedException {
+        final BlockingQueue<ChangeEvent> events = new LinkedBlockingQueue<ChangeEvent>();
+        ChangeListener listener = new ChangeListener() {
+            @Override
+            public void onChange(ChangeEvent event) {
+                events.add(event);
+            }
+        };
+        mManager.addChangeListener(listener);
+        try {
+            try {
+                mManager.runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        mManager.create().save();
+                        throw new IllegalStateException();
+                    }
+                });
+                fail();
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+
+            assertNull(events.poll(200, TimeUnit.MILLISECONDS));
+            assertEquals(0, mManager.count());
+        } finally {
+            mManager.removeChangeListener(listener);
+        }
+    }
+
+    public void testForEachReusesInstanceAndStops() {
+        for (int i = 0; i < 5; i++) {
+            final TestModel model = mManager.create();
+            model.intField = i;
+            model.save();
+        }
+
+        final List<TestModel> instances = new ArrayList<TestModel>();
+        final List<Integer> values = new ArrayList<Integer>();
+        final int count = mManager.forEach("intField >= ?", new String[] { "1" }, "intField",
+                        new RoboManager.Visitor<TestModel>() {
+                            @Override
+                            public boolean visit(TestModel model) {
+                                if (!instances.contains(model)) {
+                                    instances.add(model);
+                                }
+                                values.add(model.intField);
+                                return model.intField < 3;
+                            }
+                        });
+
+        assertEquals(3, count);
+        assertEquals(1, instances.size());
+        assertEquals(3, values.size());
+        assertEquals(Integer.valueOf(1), values.get(0));
+        assertEquals(Integer.valueOf(3), values.get(2));
+    }
+
+    public static class JsonModel extends RoboModel {
+        public int key;
+        public List<String> values;
+    }
+
+    public void testParallelCodecKeepsOrder() {
+        final RoboManager<JsonModel> manager = RoboManager.get(getContext(), JsonModel.class);
+        final List<JsonModel> models = new ArrayList<JsonModel>();
+        for (int i = 0; i < 500; i++) {
+            final JsonModel model = manager.create();
+            model.key = i;
+            model.values = new ArrayList<String>();
+            model.values.add(String.valueOf(i));
+            models.add(model);
+        }
+
+        RoboManager.setCodecThreads(4);
+        try {
+            manager.upsertAll(models, "key");
+            final List<JsonModel> loaded = manager.where(null, null, null, null, "key");
+            assertEquals(500, loaded.size());
+            for (int i = 0; i < loaded.size(); i++) {
+                assertEquals(i, loaded.get(i).key);
+                assertEquals(String.valueOf(i), loaded.get(i).values.get(0));
+            }
+        } finally {
+            RoboManager.setCodecThreads(1);
+        }
+    }
+
+    public static class Page extends RoboModelCollection<TestModel> {
+        public List<TestModel> models = new ArrayList<TestModel>();
+        public Page[] pages;
+    }
+
+    public void testCollectionSavesNestedModels() throws InstanceNotFoundException {
+        final Page page = new Page();
+        page.pages = new Page[] { new Page(), new Page() };
+        for (int i = 0; i < 300; i++) {
+            final TestModel model = mManager.create();
+            model.intField = i;
+            page.pages[i % 2].models.add(model);
+        }
+        final TestModel saved = mManager.create();
+        saved.save();
+        saved.intField = -1;
+        page.models.add(saved);
+
+        page.setContext(getContext());
+        page.save();
+
+        assertEquals(301, mManager.all().size());
+        assertEquals(-1, mManager.find(saved.getId()).intField);
+        for (final Page child : page.pages) {
+            for (final TestModel model : child.models) {
+                assertEquals(model.intField, mManager.find(model.getId()).intField);
+            }
+        }
+    }
+
+    public void testSaveAllKeepsIdsOfInserts() throws InstanceNotFoundException {
+        mManager.create().save();
+        final StorageDatabase db = new DatabaseManager(getContext())
+                        .openOrCreateDatabase(mManager.getDatabaseName());
+        // The ids of the records are not consecutive
+        db.execSQL("CREATE TRIGGER TestModel_gap AFTER INSERT ON TestModel WHEN new.intField = 1 "
+                        + "BEGIN INSERT INTO TestModel (intField) VALUES (-2); END;");
+        try {
+            final List<TestModel> models = new ArrayList<TestModel>();
+            for (int i = 0; i < 3; i++) {
+                final TestModel model = mManager.create();
+                model.intField = i;
+                models.add(model);
+            }
+            mManager.saveAll(models);
+
+            for (final TestModel model : models) {
+                assertEquals(model.intField, mManager.find(model.getId()).intField);
+            }
+        } finally {
+            db.execSQL("DROP TRIGGER TestModel_gap;");
+        }
+    }
+
+    public void testQueryCacheIsInvalidatedByWrites() {
+        assertQueryCacheIsInvalidatedByWrites();
+    }
+
+    public void testQueryCacheIsInvalidatedByWritesWithCodecThreads() {
+        RoboManager.setCodecThreads(4);
+        try {
+            assertQueryCacheIsInvalidatedByWrites();
+        } finally {
+            RoboManager.setCodecThreads(1);
+        }
+    }
+
+    private void assertQueryCacheIsInvalidatedByWrites() {
+        mManager.create().save();
+        RoboManager.setQueryCacheSize(64 * 1024);
+        RoboManager.resetQueryCacheStats();
+        try {
+            assertEquals(1, mManager.count());
+            assertEquals(1, mManager.count());
+            assertEquals(0.5, RoboManager.getQueryCacheHitRatio());
+
+            // The ids selected by where are cached too
+            RoboManager.resetQueryCacheStats();
+            assertEquals(1, mManager.where("intField = 424242").size());
+            assertEquals(1, mManager.where("intField = 424242").size());
+            assertEquals(0.5, RoboManager.getQueryCacheHitRatio());
+
+            final TestModel model = mManager.create();
+            model.save();
+            assertEquals(2, mManager.count());
+            assertEquals(2, mManager.all().size());
+            assertEquals(2, mManager.where("intField = 424242").size());
+
+            model.delete();
+            assertEquals(1, mManager.count());
+            assertEquals(1, mManager.all().size());
+            assertEquals(1, mManager.where("intField = 424242").size());
+        } finally {
+            RoboManager.setQueryCacheSize(0);
+        }
+    }
+
+    public void testLoadRecordReadsAhead() throws InstanceNotFoundException {
+        final List<TestModel> models = new ArrayList<TestModel>();
+        for (int i = 0; i < 100; i++) {
+            final TestModel model = mManager.create();
+            model.intField = i;
+            models.add(model);
+        }
+        mManager.saveAll(models);
+
+        final int[] queries = new int[1];
+        RoboMetrics.install(new RoboMetrics() {
+            @Override
+            public void onQuery(String tableName, long nanos, int rows) {
+                queries[0]++;
+            }
+        });
+        try {
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i, mManager.loadRecord(i).intField);
+            }
+        } finally {
+            RoboMetrics.install(null);
+        }
+        assertTrue(queries[0] < 10);
+
+        // A write drops the rows read ahead
+        final TestModel first = mManager.loadRecord(0);
+        first.intField = -1;
+        first.save();
+        assertEquals(-1, mManager.loadRecord(0).intField);
+    }
 }
@@ -0,0 +1,104 @@
+package com.nonninz.robomodel;
+
+import java.util.List;
+
+import android.test.AndroidTestCase;
+
+import com.nonninz.robomodel.RoboMetricsRegistry.TableStats;
+import com.nonninz.robomodel.util.Histogram;
+
+public class MetricsTestCase extends AndroidTestCase {
+    private RoboManager<TestModel> mManager;
+    private RoboMetricsRegistry mRegistry;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mManager = RoboManager.get(getContext(), TestModel.class);
+        getContext().deleteDatabase(mManager.getDatabaseName());
+
+        mRegistry = new RoboMetricsRegistry();
+        RoboMetrics.install(mRegistry);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        RoboMetrics.install(null);
+        SlowQueryLog.install(null);
+        super.tearDown();
+    }
+
+    public void testWritesAndQueriesAreCounted() {
+        mManager.create().save();
+        mManager.create().save();
+        assertEquals(2, mManager.all().size());
+        mManager.deleteAll();
+
+        final TableStats stats = mRegistry.getTableStats("TestModel");
+        assertEquals(2, stats.inserts.getCount());
+        assertEquals(2, stats.getModelsHydrated());
+        assertTrue(stats.queries.getCount() >= 3);
+        assertEquals(1, stats.deletes.getCount());
+        assertEquals(4, stats.getRowsWritten());
+    }
+
+    public void testNothingIsRecordedWhenUninstalled() {
+        RoboMetrics.install(null);
+        mManager.create().save();
+
+        assertTrue(mRegistry.getTableNames().isEmpty());
+    }
+
+    public void testCountersFromManyThreads() throws InterruptedException {
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        mRegistry.onHydrate("TestModel", j, 1);
+                        mRegistry.onCacheLookup("query", j % 2 == 0);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        final TableStats stats = mRegistry.getTableStats("TestModel");
+        assertEquals(4000, stats.getModelsHydrated());
+        assertEquals(4000, stats.hydrations.getCount());
+        assertEquals(999, stats.hydrations.getMax());
+        assertEquals(0.5, mRegistry.getCacheHitRatio("query"));
+    }
+
+    public void testHistogramPercentiles() {
+        final Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(100, histogram.getMax());
+        assertEquals(63, histogram.getPercentile(50));
+        assertEquals(100, histogram.getPercentile(99));
+    }
+
+    public void testSlowQueryLogKeepsLastRecords() {
+        final SlowQueryLog log = new SlowQueryLog(0, 2);
+        SlowQueryLog.install(log);
+
+        mManager.where("intField = 1");
+        mManager.where("intField = 2");
+        mManager.where("springField = ?", new String[] { "Tapioca" });
+
+        final List<SlowQueryLog.Record> records = log.getRecords();
+        assertEquals(2, records.size());
+        assertTrue(records.get(0).sql.contains("intField = 2"));
+        assertEquals("Tapioca", records.get(1).args[0]);
+        assertTrue(records.get(1).plan.length() > 0);
+    }
+}
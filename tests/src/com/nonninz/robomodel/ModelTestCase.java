@@ -1,13 +1,70 @@
 package com.nonninz.robomodel;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
 
+import com.nonninz.robomodel.TestModel.Answer;
+import com.nonninz.robomodel.annotations.Compressed;
+import com.nonninz.robomodel.annotations.EnumCode;
+import com.nonninz.robomodel.annotations.EnumOrdinal;
+import com.nonninz.robomodel.annotations.Lazy;
+import com.nonninz.robomodel.annotations.Scale;
 import com.nonninz.robomodel.exceptions.InstanceNotFoundException;
 
 public class ModelTestCase extends AndroidTestCase {
+    public static class LazyModel extends RoboModel {
+        public String title = "Title";
+        @Lazy public String body = "Body";
+    }
+
+    public static class AllLazyModel extends RoboModel {
+        @Lazy public String body = "Body";
+        @Lazy public int count;
+    }
+
+    public static class OrdinalModel extends RoboModel {
+        @EnumOrdinal public Answer answer = Answer.EVERYTHING;
+    }
+
+    public enum Duplicated {
+        @EnumCode(1) ONE,
+        @EnumCode(1) UNO
+    }
+
+    public static class DuplicatedModel extends RoboModel {
+        @EnumOrdinal public Duplicated value = Duplicated.ONE;
+    }
+
+    public static class CompressedModel extends RoboModel {
+        @Compressed(threshold = 100) public String body;
+    }
+
+    public static class NativeModel extends RoboModel {
+        public Long count;
+        public Date created;
+        public UUID uuid;
+        @Scale(2) public BigDecimal price;
+        public Float ratio;
+    }
+
+    public static class PackedModel extends RoboModel {
+        public int[] counters;
+        public double[] scores;
+        public List<Long> ids;
+    }
 
     private RoboManager<TestModel> mManager;
 
@@ -105,4 +162,252 @@ public class ModelTestCase extends AndroidTestCase {
         TestModel model = mManager.create();
         assertEquals(String.class, model.toJson().getClass());
     }
+
+    public void testLazyFieldIsNotLoaded() throws InstanceNotFoundException {
+        RoboManager<LazyModel> manager = RoboManager.get(getContext(), LazyModel.class);
+        LazyModel model = manager.create();
+        model.body = "A very long body";
+        model.save();
+
+        LazyModel loaded = manager.find(model.getId());
+        assertEquals("Body", loaded.body);
+
+        // Saving does not overwrite the unloaded value
+        loaded.title = "New title";
+        loaded.save();
+        loaded.loadLazy("body");
+        assertEquals("A very long body", loaded.body);
+    }
+
+    public void testUpsertKeepsUnloadedLazyField() throws InstanceNotFoundException {
+        RoboManager<LazyModel> manager = RoboManager.get(getContext(), LazyModel.class);
+        LazyModel model = manager.create();
+        model.title = "Key";
+        model.body = "A very long body";
+        model.save();
+
+        LazyModel loaded = manager.find(model.getId());
+        manager.upsert(loaded, "title");
+        manager.upsert(loaded, "title", ConflictStrategy.MERGE_NON_NULL);
+
+        LazyModel found = manager.find(model.getId());
+        found.loadLazy("body");
+        assertEquals("A very long body", found.body);
+    }
+
+    public void testAssignedLazyFieldIsSaved() throws InstanceNotFoundException {
+        RoboManager<AllLazyModel> manager = RoboManager.get(getContext(), AllLazyModel.class);
+        AllLazyModel model = manager.create();
+        model.body = "A very long body";
+        model.count = 3;
+        model.save();
+
+        // Nothing to write
+        AllLazyModel loaded = manager.find(model.getId());
+        loaded.save();
+
+        loaded.body = "Another body";
+        loaded.count = 5;
+        loaded.save();
+        AllLazyModel found = manager.find(model.getId());
+        found.loadLazy();
+        assertEquals("Another body", found.body);
+        assertEquals(5, found.count);
+    }
+
+    public void testLoadLazyInBatch() {
+        RoboManager<LazyModel> manager = RoboManager.get(getContext(), LazyModel.class);
+        for (int i = 0; i < 3; i++) {
+            LazyModel model = manager.create();
+            model.body = "Body " + i;
+            model.save();
+        }
+
+        List<LazyModel> models = manager.all();
+        manager.loadLazy(models);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("Body " + i, models.get(i).body);
+        }
+    }
+
+    public void testEnumOrdinal() throws InstanceNotFoundException {
+        RoboManager<OrdinalModel> manager = RoboManager.get(getContext(), OrdinalModel.class);
+        OrdinalModel model = manager.create();
+        model.save();
+
+        assertEquals(1, manager.where("answer = 42").size());
+        assertEquals(Answer.EVERYTHING, manager.find(model.getId()).answer);
+
+        // A code no constant declares is not loaded as another constant
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("answer", 3);
+        manager.updateWhere(values, null);
+        try {
+            manager.find(model.getId());
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testEnumOrdinalWithDuplicatedCodes() {
+        RoboManager<DuplicatedModel> manager = RoboManager.get(getContext(),
+                        DuplicatedModel.class);
+        try {
+            manager.create().save();
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testInitializeRepairsTablesInBackground() {
+        final RoboManager<LazyModel> lazyManager = RoboManager.get(getContext(), LazyModel.class);
+        mManager.dropTable();
+        lazyManager.dropTable();
+
+        final List<String> threads = new ArrayList<String>();
+        RoboMetrics.install(new RoboMetrics() {
+            @Override
+            public void onSchemaRepair(String tableName) {
+                threads.add(Thread.currentThread().getName());
+            }
+        });
+        try {
+            RoboModel.initialize(getContext(), Arrays.<Class<? extends RoboModel>> asList(
+                            TestModel.class, LazyModel.class));
+            mManager.create().save();
+            lazyManager.create().save();
+        } finally {
+            RoboMetrics.install(null);
+        }
+
+        assertEquals(2, threads.size());
+        for (final String thread : threads) {
+            assertFalse(Thread.currentThread().getName().equals(thread));
+        }
+    }
+
+    public void testCompressedField() throws InstanceNotFoundException {
+        final RoboManager<CompressedModel> manager = RoboManager.get(getContext(),
+                        CompressedModel.class);
+        manager.deleteAll();
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            body.append("The answer is 42. ");
+        }
+
+        final CompressedModel large = manager.create();
+        large.body = body.toString();
+        large.save();
+        final CompressedModel small = manager.create();
+        small.body = "Short";
+        small.save();
+
+        final SQLiteDatabase db = getContext().openOrCreateDatabase(manager.getDatabaseName(),
+                        Context.MODE_PRIVATE, null);
+        final Cursor cursor = db.rawQuery("SELECT typeof(body) FROM CompressedModel ORDER BY _id",
+                        null);
+        cursor.moveToFirst();
+        assertEquals("blob", cursor.getString(0));
+        cursor.moveToNext();
+        assertEquals("text", cursor.getString(0));
+        cursor.close();
+        db.close();
+
+        assertEquals(body.toString(), manager.find(large.getId()).body);
+        assertEquals("Short", manager.find(small.getId()).body);
+    }
+
+    public void testNativeTypes() throws InstanceNotFoundException {
+        final RoboManager<NativeModel> manager = RoboManager.get(getContext(), NativeModel.class);
+        manager.deleteAll();
+        final UUID uuid = UUID.randomUUID();
+        for (int i = 0; i < 5; i++) {
+            final NativeModel model = manager.create();
+            model.created = new Date(1400000000000L + i * 1000L);
+            model.uuid = uuid;
+            model.price = new BigDecimal("1.50").add(BigDecimal.valueOf(i));
+            model.save();
+        }
+
+        final NativeModel loaded = manager.last();
+        assertNull(loaded.count);
+        assertEquals(new Date(1400000004000L), loaded.created);
+        assertEquals(uuid, loaded.uuid);
+        assertEquals(new BigDecimal("5.50"), loaded.price);
+
+        // Compared in SQL as numbers
+        assertEquals(2, manager.where("created >= ? AND created < ?",
+                        new String[] { "1400000001000", "1400000003000" }).size());
+        assertEquals(3, manager.where("price > 300").size());
+    }
+
+    public void testReadAheadKeepsCompressedAndBlobColumns() throws InstanceNotFoundException {
+        final RoboManager<CompressedModel> compressed = RoboManager.get(getContext(),
+                        CompressedModel.class);
+        final RoboManager<NativeModel> natives = RoboManager.get(getContext(), NativeModel.class);
+        compressed.deleteAll();
+        natives.deleteAll();
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            body.append("The answer is 42. ");
+        }
+        final List<String> bodies = new ArrayList<String>();
+        final List<UUID> uuids = new ArrayList<UUID>();
+        for (int i = 0; i < 20; i++) {
+            final CompressedModel model = compressed.create();
+            model.body = i % 2 == 0 ? body.toString() + i : "Short " + i;
+            model.save();
+            bodies.add(model.body);
+            final NativeModel other = natives.create();
+            other.uuid = UUID.randomUUID();
+            other.save();
+            uuids.add(other.uuid);
+        }
+
+        // Served from the rows read ahead
+        for (int i = 0; i < 20; i++) {
+            assertEquals(bodies.get(i), compressed.loadRecord(i).body);
+            assertEquals(uuids.get(i), natives.loadRecord(i).uuid);
+        }
+    }
+
+    public void testNativeFloatExportsDigitsOfFloat() throws IOException {
+        final RoboManager<NativeModel> manager = RoboManager.get(getContext(), NativeModel.class);
+        manager.deleteAll();
+        final NativeModel model = manager.create();
+        model.ratio = 0.1f;
+        model.save();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manager.exportJson(out);
+        assertTrue(out.toString("UTF-8").contains("\"ratio\":0.1}"));
+    }
+
+    public void testPackedArrays() throws InstanceNotFoundException {
+        final RoboManager<PackedModel> manager = RoboManager.get(getContext(), PackedModel.class);
+        final PackedModel model = manager.create();
+        model.counters = new int[] { 3, -1, 4 };
+        model.ids = new ArrayList<Long>();
+        for (long id = 1000000; id < 1001000; id++) {
+            model.ids.add(id);
+        }
+        model.save();
+
+        final PackedModel loaded = manager.find(model.getId());
+        assertTrue(Arrays.equals(model.counters, loaded.counters));
+        assertNull(loaded.scores);
+        assertEquals(model.ids, loaded.ids);
+
+        // Sorted ids take about a byte each
+        final SQLiteDatabase db = getContext().openOrCreateDatabase(manager.getDatabaseName(),
+                        Context.MODE_PRIVATE, null);
+        final Cursor cursor = db.rawQuery("SELECT length(ids) FROM PackedModel", null);
+        cursor.moveToFirst();
+        assertTrue(cursor.getInt(0) < 1100);
+        cursor.close();
+        db.close();
+    }
 }
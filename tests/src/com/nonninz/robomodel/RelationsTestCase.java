@@ -0,0 +1,115 @@
+package com.nonninz.robomodel;
+
+import java.util.List;
+
+import android.test.AndroidTestCase;
+
+import com.nonninz.robomodel.annotations.BelongsTo;
+import com.nonninz.robomodel.annotations.HasMany;
+import com.nonninz.robomodel.exceptions.InstanceNotFoundException;
+
+public class RelationsTestCase extends AndroidTestCase {
+    public static class Customer extends RoboModel {
+        public String name = "Arthur";
+    }
+
+    public static class Purchase extends RoboModel {
+        public String code = "42";
+        @BelongsTo public Customer customer;
+        @HasMany("purchase") public List<LineItem> lineItems;
+    }
+
+    public static class LineItem extends RoboModel {
+        public int quantity = 1;
+        @BelongsTo public Purchase purchase;
+    }
+
+    private RoboManager<Customer> mCustomers;
+    private RoboManager<Purchase> mPurchases;
+    private RoboManager<LineItem> mLineItems;
+    private Customer mCustomer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mCustomers = RoboManager.get(getContext(), Customer.class);
+        mPurchases = RoboManager.get(getContext(), Purchase.class);
+        mLineItems = RoboManager.get(getContext(), LineItem.class);
+        getContext().deleteDatabase(mPurchases.getDatabaseName());
+
+        mCustomer = mCustomers.create();
+        mCustomer.name = "Ford";
+        mCustomer.save();
+        for (int i = 1; i <= 3; i++) {
+            Purchase purchase = mPurchases.create();
+            purchase.code = String.valueOf(i);
+            purchase.customer = mCustomer;
+            purchase.save();
+            for (int j = 0; j < i; j++) {
+                LineItem item = mLineItems.create();
+                item.purchase = purchase;
+                item.save();
+            }
+        }
+    }
+
+    public void testRelationsAreReferencesByDefault() throws InstanceNotFoundException {
+        Purchase purchase = mPurchases.all().get(0);
+
+        assertEquals(mCustomer.getId(), purchase.customer.getId());
+        assertEquals("Arthur", purchase.customer.name);
+        assertNull(purchase.lineItems);
+
+        // Saving it again keeps the foreign key
+        purchase.save();
+        assertEquals(mCustomer.getId(), mPurchases.find(purchase.getId()).customer.getId());
+    }
+
+    public void testIncludeBelongsTo() {
+        List<LineItem> items = mLineItems.include("purchase").all();
+
+        assertEquals(6, items.size());
+        assertEquals("3", items.get(5).purchase.code);
+    }
+
+    public void testIncludeHasMany() {
+        List<Purchase> purchases = mPurchases.include("customer", "lineItems").all();
+
+        assertEquals(3, purchases.size());
+        for (int i = 0; i < 3; i++) {
+            Purchase purchase = purchases.get(i);
+            assertEquals("Ford", purchase.customer.name);
+            assertEquals(i + 1, purchase.lineItems.size());
+            assertEquals(purchase.getId(), purchase.lineItems.get(0).purchase.getId());
+        }
+    }
+
+    public void testIncludedModelToJson() {
+        Purchase purchase = mPurchases.include("customer", "lineItems").all().get(2);
+
+        String json = purchase.toJson();
+        assertTrue(json.contains("\"name\":\"Ford\""));
+        assertEquals(3, json.split("\"quantity\"").length - 1);
+    }
+
+    public void testIncludeUnknownRelation() {
+        try {
+            mPurchases.include("code");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testSaveWithUnsavedRelation() {
+        Purchase purchase = mPurchases.create();
+        purchase.customer = mCustomers.create();
+        try {
+            purchase.save();
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.nonninz.robomodel;
 import android.content.Context;
 
 import com.google.gson.annotations.Expose;
+import com.nonninz.robomodel.annotations.EnumCode;
 
 public class TestModel extends RoboModel {
 
@@ -11,7 +12,9 @@ public class TestModel extends RoboModel {
     }
 
     public enum Answer {
-        LIFE, UNIVERSE, EVERYTHING
+        @EnumCode(1) LIFE,
+        @EnumCode(2) UNIVERSE,
+        @EnumCode(42) EVERYTHING
     }
 
     @Expose public String springField = "BTW thanks for all the fish!";;